@@ -4,6 +4,10 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -12,7 +16,7 @@ import java.util.Set;
  * 프로그램의 수행 작업은 다음과 같다. 
  * 1) 처음 시작하면 Instruction 명세를 읽어들여서 assembler를 세팅한다. 
  * 2) 사용자가 작성한 input 파일을 읽어들인 후 저장한다. 
- * 3) input 파일의 문장들을 단어별로 분할하고 의미를 파악해서 정리한다. (pass1) 
+ * 3) input 파일의 매크로를 전개하고, 문장들을 단어별로 분할하고 의미를 파악해서 정리한다. (pass1) 
  * 4) 분석된 내용을 바탕으로 컴퓨터가 사용할 수 있는 object code를 생성한다. (pass2) 
  * 
  * 
@@ -41,33 +45,147 @@ public class Assembler {
 	 * 필요한 경우 String 대신 별도의 클래스를 선언하여 ArrayList를 교체해도 무방함.
 	 */
 	ArrayList<String> codeList;
+	/** 어셈블 방식들. 첫번째가 기본 방식이다. */
+	static final String[] MODES = {"sequential", "pipeline", "lowmem", "parallel", "arena"};
+	/** 병렬 토큰 분리에서 thread 하나가 맡는 최소 라인 수 */
+	static final int PARALLEL_CHUNK=4096;
+	/** token의 문자열을 공유하는 pool. 같은 batch의 Assembler들이 함께 쓴다 */
+	InternPool internPool;
+	/** pass1 앞단에서 MACRO/MEND를 전개하는 매크로 프로세서 */
+	MacroProcessor macroProcessor;
 	
 	/**
 	 * 클래스 초기화. instruction Table을 초기화와 동시에 세팅한다.
+	 * 같은 명세 파일을 이미 읽은 Assembler가 있으면 그 InstTable을 함께 쓴다.
 	 * 
 	 * @param instFile : instruction 명세를 작성한 파일 이름. 
 	 */
 	public Assembler(String instFile) {
-		instTable = new InstTable(instFile);
+		this(InstTable.shared(instFile));
+	}
+
+	/**
+	 * 클래스 초기화. 이미 읽어둔 instruction Table을 사용한다.
+	 * 
+	 * @param instTable : instruction 명세가 세팅된 InstTable
+	 */
+	public Assembler(InstTable instTable) {
+		this(instTable, new InternPool());
+	}
+
+	/**
+	 * 클래스 초기화. 함께 실행하는 다른 Assembler들과 instruction Table과 문자열 pool을 공유한다.
+	 * 
+	 * @param instTable : instruction 명세가 세팅된 InstTable
+	 * @param internPool : 같은 batch의 Assembler들이 함께 쓰는 문자열 pool
+	 */
+	public Assembler(InstTable instTable, InternPool internPool) {
+		this.instTable = instTable;
+		this.internPool = internPool;
 		lineList = new ArrayList<String>();
 		symtabList = new ArrayList<SymbolTable>();
 		literaltabList = new ArrayList<LiteralTable>();
 		TokenList = new ArrayList<TokenTable>();
 		codeList = new ArrayList<String>();
+		macroProcessor = new MacroProcessor();
 	}
 
 	/** 
 	 * 어셈블러의 메인 루틴
+	 * 
+	 * 옵션 :
+	 *   -pipeline : 읽기, 토큰 분리, 주소 할당/object code 생성, 출력을 각각의 thread에서 동시에 수행한다.
+	 *   -lowmem : pipeline과 같다. pipeline은 section이 끝나는 대로 record와 symbol/literal table을 출력하고 버리며,
+	 *             section끼리 공유하는 테이블이 없으므로 한 section만 heap에 들어가면 된다.
+	 *   -parallel : 라인들을 여러 thread에서 나누어 토큰으로 분리한 후 section으로 나눈다.
+	 *   -arena : 매크로를 전개한 소스를 heap 밖의 SourceArena에 두고, section을 하나씩 꺼내 어셈블하고 출력한 후 버린다.
+	 *   -watch : input 파일이 바뀔 때마다 바뀐 section만 다시 어셈블하고 출력 파일을 교체한다.
+	 *   -listing : 어셈블리 리스팅(주소, 소스, object code)을 listing_20160270.txt에 출력한다.
+	 *   -image : section들을 차례로 적재한 메모리 이미지를 image_20160270.bin에 출력한다.
+	 *   
+	 * 모든 출력물은 AssemblyOutput을 통해 section을 한번씩만 방문하면서 만들어진다.
 	 */
 	public static void main(String[] args) {
 		Assembler assembler = new Assembler("inst.txt");
-		assembler.loadInputFile("input.txt");	
-		assembler.pass1();
-		assembler.printSymbolTable("symtab_20160270.txt");
-		assembler.printLiteralTable("literaltab_20160270.txt");
-		assembler.pass2();
-		assembler.printObjectCode("output_20160270.txt");
-		
+		if(hasOption(args, "-watch")) {
+			try {
+				new AssemblyWatcher(assembler.instTable, "input.txt", "output_20160270.txt", "symtab_20160270.txt", "literaltab_20160270.txt").run();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		AssemblyOutput output = openOutputs(args);
+		if(output == null) System.exit(1);
+		String mode = MODES[0];
+		for(int i=0;i<MODES.length;i++)
+			if(hasOption(args, "-"+MODES[i])) mode = MODES[i];
+		if(!assembler.assemble(mode, "input.txt", output))
+			System.exit(1);
+	}
+
+	/**
+	 * mode에 맞는 방식으로 inputFile을 어셈블하여 output의 sink들에 출력한다. 
+	 * 성공하면 output을 닫아 출력 파일을 교체하고, 예외가 발생하거나 실패하면 output의 출력을 버린다.
+	 * 어떤 mode이든 출력 내용은 같아야 한다.
+	 * @param mode : MODES 중 하나
+	 * @param inputFile : input 파일 이름
+	 * @param output : 출력물을 받아갈 sink들
+	 * @return 성공하면 true
+	 */
+	boolean assemble(String mode, String inputFile, AssemblyOutput output) {
+		if(mode.equals("pipeline") || mode.equals("lowmem")) {
+			return new AssemblyPipeline(this).run(inputFile, output);
+		}
+		try {
+			if(mode.equals("arena"))
+				assembleFromArena(inputFile, output);
+			else {
+				loadInputFile(inputFile);
+				if(mode.equals("parallel")) pass1Parallel(Runtime.getRuntime().availableProcessors());
+				else pass1();
+				writeOutputs(output);
+			}
+			output.close();
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			output.abort();		// close가 끝났으면 아무것도 하지 않는다
+		}
+	}
+
+	/**
+	 * 실행 인자에 맞게 출력물(object program, symbol table, literal table과 선택한 listing, memory image)의 sink를 준비한다.
+	 * @param args : 실행 인자
+	 * @return 준비된 출력. 파일을 열 수 없으면 null
+	 */
+	static AssemblyOutput openOutputs(String[] args) {
+		try {
+			AssemblyOutput output = new AssemblyOutput()
+					.addSink(new ObjectProgramSink("output_20160270.txt"))
+					.addSink(new SymbolTableSink("symtab_20160270.txt"))
+					.addSink(new LiteralTableSink("literaltab_20160270.txt"));
+			if(hasOption(args, "-listing")) output.addSink(new ListingSink("listing_20160270.txt"));
+			if(hasOption(args, "-image")) output.addSink(new MemoryImageSink("image_20160270.bin"));
+			return output;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * 실행 인자에 option이 포함되어 있는지 확인한다.
+	 * @param args : 실행 인자
+	 * @param option : 찾는 옵션
+	 * @return 포함되어 있으면 true
+	 */
+	static boolean hasOption(String[] args, String option) {
+		for(int i=0;i<args.length;i++)
+			if(args[i].equals(option)) return true;
+		return false;
 	}
 
 	/**
@@ -77,8 +195,7 @@ public class Assembler {
 	private void loadInputFile(String inputFile) {
 		try{
             //파일 객체 생성
-			String dataFolder = System.getProperty("user.dir") + System.getProperty("file.separator") + "src\\";
-			File file = new File(dataFolder+inputFile);
+			File file = inputPath(inputFile);
             FileReader filereader = new FileReader(file);
             BufferedReader bufReader = new BufferedReader(filereader);
             String line = null;
@@ -93,8 +210,20 @@ public class Assembler {
         }
 	}
 
+	/**
+	 * input 파일 이름을 실제 경로로 바꾼다. 절대 경로가 아니면 src 폴더에서 찾는다.
+	 * @param inputFile : input 파일 이름.
+	 * @return input 파일
+	 */
+	static File inputPath(String inputFile) {
+		if(new File(inputFile).isAbsolute()) return new File(inputFile);
+		String dataFolder = System.getProperty("user.dir") + System.getProperty("file.separator") + "src\\";
+		return new File(dataFolder+inputFile);
+	}
+
 	/** 
 	 * pass1 과정을 수행한다.
+	 *   0) 매크로 프로세서를 거쳐 MACRO/MEND 정의를 제거하고 호출을 전개한다. 전개된 라인은 한 줄씩 바로 토큰으로 분리된다.
 	 *   1) 프로그램 소스를 스캔하여 토큰단위로 분리한 뒤 토큰테이블 생성
 	 *   2) label을 symbolTable에 정리
 	 *   
@@ -103,104 +232,338 @@ public class Assembler {
 	private void pass1() {
 		int current=-1;  	//section 번호
 
-		for(int i=0;i<lineList.size();i++) {
-			if(lineList.get(i).contains("START") || lineList.get(i).contains("CSECT") ) { //section 만들기
-				SymbolTable s = new SymbolTable();
-				LiteralTable l = new LiteralTable();
-				TokenTable t= new TokenTable(s,l,instTable);
-				TokenList.add(t);
-				literaltabList.add(l);
-				symtabList.add(s);
+		Iterator<String> lines=macroProcessor.expand(lineList.iterator());
+		while(lines.hasNext()) {
+			String line=lines.next();
+			if(isSectionStart(line)) { //section 만들기
+				addSection(createSection());
 				current++;
 			}
-			TokenList.get(current).putToken(lineList.get(i));			// section별로 token 집어넣기
+			checkSectionStarted(current>=0, line);
+			TokenList.get(current).putToken(line);			// section별로 token 집어넣기
 		}
 		
-		for(int i=0;i<TokenList.size();i++) {
-			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {			// literaltable, symboltable만들기
-				if(TokenList.get(i).tokenList.get(j).operand[0].contains("=") ) {
-					String[] lit=TokenList.get(i).tokenList.get(j).operand[0].split("\'");
-					if(TokenList.get(i).literalTab.search(lit[1])==-1) {
-						TokenList.get(i).literalTab.putLiteral(lit[1], 0);
+		for(int i=0;i<TokenList.size();i++)
+			buildSection(TokenList.get(i));
+	}
+	
+	/**
+	 * pass1과 같은 결과를 만들되, 토큰 분리를 여러 thread에서 나누어 수행한다.
+	 *   1) 매크로를 전개한 라인들을 라인 경계에서 chunk로 나눈다.
+	 *   2) 각 chunk를 병렬로 토큰 분리하여 미리 할당해 둔 tokens 배열의 같은 위치에 넣는다.
+	 *      section 시작 여부(isSectionStart)도 이때 함께 구해둔다.
+	 *   3) 순서대로 한번 훑으면서 section을 나누고, section별로 buildSection을 수행한다.
+	 * @param threads : 사용할 thread 수
+	 */
+	void pass1Parallel(int threads) {
+		final ArrayList<String> lines=new ArrayList<String>();
+		Iterator<String> it=macroProcessor.expand(lineList.iterator());
+		while(it.hasNext())
+			lines.add(it.next());
+
+		final Token[] tokens=new Token[lines.size()];
+		final boolean[] sectionStart=new boolean[lines.size()];
+		int chunk=Math.max(PARALLEL_CHUNK, (lines.size()+threads-1)/Math.max(threads,1));
+		ExecutorService pool=Executors.newFixedThreadPool(Math.max(threads,1));
+		try {
+			ArrayList<Future<?>> futures=new ArrayList<Future<?>>();
+			for(int from=0;from<lines.size();from+=chunk) {
+				final int begin=from;
+				final int end=Math.min(from+chunk, lines.size());
+				futures.add(pool.submit(() -> {
+					long allocated=ThreadAllocation.current();
+					for(int i=begin;i<end;i++) {
+						tokens[i]=new Token(lines.get(i), internPool);
+						sectionStart[i]=isSectionStart(lines.get(i));
 					}
+					ThreadAllocation.record(allocated);
+				}));
+			}
+			for(int i=0;i<futures.size();i++)
+				futures.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("tokenizing interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("tokenizing failed", e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+
+		int current=-1;  	//section 번호
+		for(int i=0;i<tokens.length;i++) {
+			if(sectionStart[i]) { //section 만들기
+				addSection(createSection());
+				current++;
+			}
+			checkSectionStarted(current>=0, lines.get(i));
+			TokenList.get(current).putToken(tokens[i]);
+		}
+		
+		for(int i=0;i<TokenList.size();i++)
+			buildSection(TokenList.get(i));
+	}
+	
+	/**
+	 * input 파일을 SourceArena에 읽어들인 후 section 하나씩 토큰 분리, pass1, pass2, 출력을 수행한다.
+	 * 소스는 heap 밖에 있고, Token과 object code는 해당 section을 처리하는 동안만 heap에 있으므로
+	 * GC가 다루는 객체의 양이 프로그램 전체가 아닌 section 하나의 크기로 정해진다.
+	 * 어셈블이 끝나면 arena 전체를 한번에 놓는다.
+	 * @param inputFile : input 파일 이름
+	 * @param output : 출력물을 받아갈 sink들. 닫는 것은 호출한 쪽에서 한다.
+	 */
+	void assembleFromArena(String inputFile, AssemblyOutput output) throws IOException {
+		SourceArena arena=new SourceArena();
+		ArrayList<Integer> sectionStart=new ArrayList<Integer>();
+		try {
+			BufferedReader bufReader = new BufferedReader(new FileReader(inputPath(inputFile)));
+			try {
+				Iterator<String> lines=macroProcessor.expand(readLines(bufReader));
+				while(lines.hasNext()) {
+					String line=lines.next();
+					boolean start=isSectionStart(line);
+					checkSectionStarted(start || !sectionStart.isEmpty(), line);
+					int number=arena.add(line);
+					if(start) sectionStart.add(number);
 				}
-				if(TokenList.get(i).tokenList.get(j).label.matches("^[a-zA-Z]*$") && !TokenList.get(i).tokenList.get(j).label.matches("")){
-					if(TokenList.get(i).literalTab.search(TokenList.get(i).tokenList.get(j).label)==-1) {
-						TokenList.get(i).symTab.putSymbol(TokenList.get(i).tokenList.get(j).label, 0);
+			} finally {
+				bufReader.close();
+			}
+			sectionStart.add(arena.size());
+			
+			for(int i=0;i+1<sectionStart.size();i++) {
+				TokenTable t=createSection();
+				for(int j=sectionStart.get(i);j<sectionStart.get(i+1);j++)
+					t.putToken(arena.line(j));
+				buildSection(t);
+				output.section(t, generateSection(i, t));
+			}
+		} finally {
+			arena.close();
+		}
+	}
+	
+	/**
+	 * BufferedReader의 라인들을 하나씩 읽어주는 Iterator를 만든다. 매크로 프로세서에 넘겨주기 위해 사용한다.
+	 * @param bufReader : 읽을 곳
+	 * @return 라인 Iterator. 읽기에 실패하면 UncheckedIOException을 던진다.
+	 */
+	static Iterator<String> readLines(final BufferedReader bufReader) {
+		return new Iterator<String>() {
+			String nextLine;
+			boolean done;
+
+			public boolean hasNext() {
+				if(nextLine==null && !done) {
+					try {
+						nextLine=bufReader.readLine();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
 					}
+					done= nextLine==null;
+				}
+				return nextLine!=null;
+			}
+
+			public String next() {
+				if(!hasNext()) throw new java.util.NoSuchElementException();
+				String line=nextLine;
+				nextLine=null;
+				return line;
+			}
+		};
+	}
+	
+	/**
+	 * line이 새로운 section의 시작(START, CSECT)인지 확인한다.
+	 * @param line : input 파일의 한 줄
+	 * @return 새로운 section이 시작되면 true
+	 */
+	static boolean isSectionStart(String line) {
+		return line.contains("START") || line.contains("CSECT");
+	}
+	
+	/**
+	 * 첫번째 section이 시작되기 전의 라인은 어느 section에도 넣을 수 없으므로 오류로 처리한다.
+	 * 모든 mode가 같은 오류를 내도록 라인을 section에 넣기 전에 호출한다.
+	 * @param started : 이미 section이 시작되었으면 true
+	 * @param line : section에 넣으려는 라인
+	 */
+	static void checkSectionStarted(boolean started, String line) {
+		if(!started) throw new IllegalStateException("line before START : "+line);
+	}
+	
+	/**
+	 * 한 section 안에서 같은 label이 두번 정의되면 어느 쪽 주소도 맞지 않으므로 오류로 처리한다.
+	 * label이 있는 매크로를 같은 section에서 두번 호출한 경우도 여기서 걸러진다.
+	 * @param t : label을 넣으려는 section
+	 * @param label : 새로 정의되는 label
+	 */
+	static void checkNewSymbol(TokenTable t, String label) {
+		if(t.symTab.symbolList.contains(label)) throw new IllegalStateException("duplicate label : "+label);
+	}
+	
+	/**
+	 * 새로운 section의 SymbolTable, LiteralTable, TokenTable을 만든다.
+	 * @return symbol table과 literal table이 링크된 빈 TokenTable
+	 */
+	TokenTable createSection() {
+		SymbolTable s = new SymbolTable();
+		LiteralTable l = new LiteralTable();
+		TokenTable t = new TokenTable(s,l,instTable);
+		t.internPool = internPool;
+		return t;
+	}
+	
+	/**
+	 * section의 테이블들을 TokenList, symtabList, literaltabList에 등록한다.
+	 * @param t : 등록할 section
+	 */
+	void addSection(TokenTable t) {
+		TokenList.add(t);
+		literaltabList.add(t.literalTab);
+		symtabList.add(t.symTab);
+	}
+	
+	/**
+	 * 토큰 분리가 끝난 section 하나에 대해 pass1의 나머지 과정을 수행한다.
+	 * section끼리는 서로 참조하지 않으므로 section이 완성되는 대로 따로 처리할 수 있다.
+	 *   1) literal table, symbol table 만들기
+	 *   2) LTORG, END 위치에 literal 넣기
+	 *   3) 주소 할당 후 symbol, literal 주소 처리
+	 *      USE로 나뉜 program block은 block별 location counter로 한번에 주소를 할당하고,
+	 *      section 끝에서 block의 시작 주소가 정해지면 symbol, literal 주소 처리와 같은 순회에서 section 주소로 바꾼다.
+	 * @param t : 처리할 section
+	 */
+	void buildSection(TokenTable t) {
+		for(int j=0;j<t.tokenList.size();j++ ) {			// literaltable, symboltable만들기
+			if(t.tokenList.get(j).operand[0].contains("=") ) {
+				String[] lit=t.tokenList.get(j).operand[0].split("\'");
+				if(t.literalTab.search(lit[1])==-1) {
+					t.literalTab.putLiteral(lit[1], 0);
+				}
+			}
+			if(t.tokenList.get(j).label.matches("^[a-zA-Z]*$") && !t.tokenList.get(j).label.matches("")){
+				if(t.literalTab.search(t.tokenList.get(j).label)==-1) {
+					checkNewSymbol(t, t.tokenList.get(j).label);
+					t.symTab.putSymbol(t.tokenList.get(j).label, 0);
 				}
 			}
 		}
 		
-		for(int i=0;i<TokenList.size();i++) {
-			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {			// 리터럴 넣기
-				if(TokenList.get(i).tokenList.get(j).operator.contains("LTORG")) {
-					for(int z=0;z<TokenList.get(i).literalTab.literalList.size();z++) {
-						String str="*\t"+TokenList.get(i).literalTab.literalList.get(z);
-						TokenList.get(i).putToken(j+1,str);
-					}
+		for(int j=0;j<t.tokenList.size();j++ ) {			// 리터럴 넣기
+			if(t.tokenList.get(j).operator.contains("LTORG")) {
+				for(int z=0;z<t.literalTab.literalList.size();z++) {
+					String str="*\t"+t.literalTab.literalList.get(z);
+					t.putToken(j+1,str);
 				}
-				else if(TokenList.get(i).tokenList.get(j).operator.contains("END")){
-					for(int z=0;z<TokenList.get(i).literalTab.literalList.size();z++) {
-						String str="*\t"+TokenList.get(i).literalTab.literalList.get(z);
-						TokenList.get(i).putToken(str);
-					}
+			}
+			else if(t.tokenList.get(j).operator.contains("END")){
+				for(int z=0;z<t.literalTab.literalList.size();z++) {
+					String str="*\t"+t.literalTab.literalList.get(z);
+					t.putToken(str);
 				}
 			}
 		}
 		
-		for(int i=0;i<TokenList.size();i++) {
-			int currentLocation =0;
-			ArrayList<Token> A=TokenList.get(i).tokenList;
-			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {
-				A.get(j).location=currentLocation;
-				String temp=A.get(j).operator.replace("+", "");
-				if(A.get(j).label.contains(".")) continue;
-				if(TokenList.get(i).getOpcode(temp)==-1) {	// 주석문이거나 명령어가 없는 라인의 주소처리
-					if(A.get(j).operator.contains("RESW")) {
-						currentLocation+=Integer.parseInt(A.get(j).operand[0])*3;
+		int currentLocation =0;
+		int block=0;		// 현재 program block 번호. USE를 만나기 전까지는 이름없는 기본 block(0)
+		HashMap<String, Integer> blockIndex=new HashMap<String, Integer>();
+		ArrayList<Integer> blockLocation=new ArrayList<Integer>();	// block별 location counter
+		blockIndex.put("", 0);
+		blockLocation.add(0);
+		ArrayList<Token> A=t.tokenList;
+		for(int j=0;j<t.tokenList.size();j++ ) {
+			A.get(j).location=currentLocation;
+			A.get(j).block=block;
+			String temp=A.get(j).operator.replace("+", "");
+			if(A.get(j).label.contains(".")) continue;
+			if(t.getOpcode(temp)==-1) {	// 주석문이거나 명령어가 없는 라인의 주소처리
+				if(A.get(j).operator.equals("USE")) {	// program block 전환. 이전 block의 counter를 보관하고 다음 block의 counter로 바꾼다
+					blockLocation.set(block, currentLocation);
+					Integer next=blockIndex.get(A.get(j).operand[0]);
+					if(next==null) {
+						next=blockLocation.size();
+						blockIndex.put(A.get(j).operand[0], next);
+						blockLocation.add(0);
 					}
-					else if(A.get(j).operator.contains("RESB")) {
-						currentLocation+=Integer.parseInt(A.get(j).operand[0]);
-					}
-					else if(A.get(j).operator.contains("EQU")) {
-						if(A.get(j).operand[0].contains("*")) {
-							continue;
-						}
-						else {
-							String[] str=A.get(j).operand[0].split("-");
-							int[] equTominus=new int[2];
-							for(int k=0;k<j;k++) {
-								if(A.get(k).label.contains(str[0])) equTominus[0]=A.get(k).location;
-								else if(A.get(k).label.contains(str[1])) equTominus[1]=A.get(k).location;
-							}
-							A.get(j).location=equTominus[0]-equTominus[1];
-						}
+					block=next;
+					currentLocation=blockLocation.get(block);
+				}
+				else if(A.get(j).operator.contains("RESW")) {
+					currentLocation+=Integer.parseInt(A.get(j).operand[0])*3;
+				}
+				else if(A.get(j).operator.contains("RESB")) {
+					currentLocation+=Integer.parseInt(A.get(j).operand[0]);
+				}
+				else if(A.get(j).operator.contains("EQU")) {
+					if(A.get(j).operand[0].contains("*")) {
+						continue;
 					}
-					else if(A.get(j).operator.contains("BYTE") ) 
-						currentLocation+=1;
-					else if(A.get(j).operator.contains("WORD"))
-						currentLocation+=3;
-					else if(A.get(j).label.contains("*")) {
-						if(Character.isDigit(A.get(j).operator.charAt(0))) currentLocation+=A.get(j).operator.length()/2;
-						else currentLocation+=A.get(j).operator.length();
+					else {
+						A.get(j).location=equValue(A, j);
 					}
 				}
-				else {	//instruction 라인 주소처리
-					String str=A.get(j).operator.replace("+", "");
-					currentLocation+=TokenList.get(i).getFormat(str);
-					if(A.get(j).operator.contains("+"))		currentLocation+=1;
+				else if(A.get(j).operator.contains("BYTE") ) 
+					currentLocation+=1;
+				else if(A.get(j).operator.contains("WORD"))
+					currentLocation+=3;
+				else if(A.get(j).label.contains("*")) {
+					if(Character.isDigit(A.get(j).operator.charAt(0))) currentLocation+=A.get(j).operator.length()/2;
+					else currentLocation+=A.get(j).operator.length();
 				}
 			}
-			for(int z=0;z<TokenList.get(i).tokenList.size();z++ ) {
-				if( !A.get(z).label.matches("") && TokenList.get(i).symTab.search(A.get(z).label)==0) //symtable 주소처리
-					TokenList.get(i).symTab.modifySymbol(A.get(z).label, A.get(z).location);
-				if( !A.get(z).operator.matches("") && TokenList.get(i).literalTab.search(A.get(z).operator)==0) //literaltable 주소처리
-					TokenList.get(i).literalTab.modifyLiteral(A.get(z).operator, A.get(z).location);
+			else {	//instruction 라인 주소처리
+				String str=A.get(j).operator.replace("+", "");
+				currentLocation+=t.getFormat(str);
+				if(A.get(j).operator.contains("+"))		currentLocation+=1;
 			}
-			TokenList.get(i).size=currentLocation;	
 		}
+		blockLocation.set(block, currentLocation);
 		
+		int[] blockBase=new int[blockLocation.size()];	// block은 처음 나온 순서대로 이어 붙인다
+		for(int b=1;b<blockBase.length;b++)
+			blockBase[b]=blockBase[b-1]+blockLocation.get(b-1);
+		ArrayList<ArrayList<Integer>> blockMember=new ArrayList<ArrayList<Integer>>();
+		for(int b=0;b<blockBase.length && blockBase.length>1;b++)
+			blockMember.add(new ArrayList<Integer>());
+		
+		for(int z=0;z<t.tokenList.size();z++ ) {
+			if(blockBase.length>1) {	// block 내 상대주소를 section 주소로 바꾸고, block 순서의 목록에 넣는다
+				boolean absolute=A.get(z).operator.contains("EQU") && !A.get(z).operand[0].contains("*");
+				if(!absolute) A.get(z).location+=blockBase[A.get(z).block];
+				else A.get(z).location=equValue(A, z);	// 앞의 symbol들이 section 주소로 바뀐 후 다시 계산해야 서로 다른 block의 symbol끼리도 맞는다
+				blockMember.get(A.get(z).block).add(z);
+			}
+			if( !A.get(z).label.matches("") && t.symTab.search(A.get(z).label)==0) //symtable 주소처리
+				t.symTab.modifySymbol(A.get(z).label, A.get(z).location);
+			if( !A.get(z).operator.matches("") && t.literalTab.search(A.get(z).operator)==0) //literaltable 주소처리
+				t.literalTab.modifyLiteral(A.get(z).operator, A.get(z).location);
+		}
+		t.size=blockBase[blockBase.length-1]+blockLocation.get(blockBase.length-1);	
+		
+		if(blockBase.length>1) {
+			t.blockOrder=new int[t.tokenList.size()];
+			int k=0;
+			for(ArrayList<Integer> member : blockMember)
+				for(int z : member) t.blockOrder[k++]=z;
+		}
+	}
+	
+	/**
+	 * EQU의 "A-B" 식을 앞에서 정의된 label들의 현재 주소로 계산한다.
+	 * @param A : section의 token들
+	 * @param j : EQU token의 위치
+	 * @return A의 주소 - B의 주소
+	 */
+	static int equValue(ArrayList<Token> A, int j) {
+		String[] str=A.get(j).operand[0].split("-");
+		int[] equTominus=new int[2];
+		for(int k=0;k<j;k++) {
+			if(A.get(k).label.contains(str[0])) equTominus[0]=A.get(k).location;
+			else if(A.get(k).label.contains(str[1])) equTominus[1]=A.get(k).location;
+		}
+		return equTominus[0]-equTominus[1];
 	}
 	
 	/**
@@ -210,12 +573,8 @@ public class Assembler {
 	private void printSymbolTable(String fileName) {
 		try {
 			FileWriter writer = new FileWriter(fileName);
-			for(int i=0;i<TokenList.size();i++) {				
-				for(int j=0;j<TokenList.get(i).symTab.symbolList.size();j++ ) {
-					writer.write(TokenList.get(i).symTab.symbolList.get(j)+"\t\t"+Integer.toHexString(TokenList.get(i).symTab.locationList.get(j))+"\n");
-				}
-				writer.write("\n");
-			}
+			for(int i=0;i<TokenList.size();i++)
+				writeSymbolTable(writer, TokenList.get(i));
 			writer.close();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
@@ -232,11 +591,8 @@ public class Assembler {
 		
 		 try {
 			FileWriter writer = new FileWriter(fileName);
-			for(int i=0;i<TokenList.size();i++) {				
-				for(int j=0;j<TokenList.get(i).literalTab.literalList.size();j++ ) {
-					writer.write(TokenList.get(i).literalTab.literalList.get(j)+" "+Integer.toHexString(TokenList.get(i).literalTab.locationList.get(j))+"\n");
-				}
-			}
+			for(int i=0;i<TokenList.size();i++)
+				writeLiteralTable(writer, TokenList.get(i));
 			writer.close();
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -244,106 +600,149 @@ public class Assembler {
 
 	}
 
+	/**
+	 * section 하나의 SymbolTable을 출력형태에 맞게 출력한다.
+	 * @param writer : 출력할 곳
+	 * @param t : 출력할 section
+	 */
+	static void writeSymbolTable(Writer writer, TokenTable t) throws IOException {
+		for(int j=0;j<t.symTab.symbolList.size();j++ ) {
+			writer.write(t.symTab.symbolList.get(j)+"\t\t"+Integer.toHexString(t.symTab.locationList.get(j))+"\n");
+		}
+		writer.write("\n");
+	}
+
+	/**
+	 * section 하나의 LiteralTable을 출력형태에 맞게 출력한다.
+	 * @param writer : 출력할 곳
+	 * @param t : 출력할 section
+	 */
+	static void writeLiteralTable(Writer writer, TokenTable t) throws IOException {
+		for(int j=0;j<t.literalTab.literalList.size();j++ ) {
+			writer.write(t.literalTab.literalList.get(j)+" "+Integer.toHexString(t.literalTab.locationList.get(j))+"\n");
+		}
+	}
+
 	/**
 	 * pass2 과정을 수행한다.
 	 *   1) 분석된 내용을 바탕으로 object code를 생성하여 codeList에 저장.
 	 */
 	private void pass2() {
+		for(int i=0;i<TokenList.size();i++)	//codeList에 저장
+			codeList.addAll(generateSection(i, TokenList.get(i)));
+	}
+	
+	/**
+	 * section 하나의 object code를 생성하고 출력 형태의 record(H, D, R, T, M, E)로 만든다.
+	 * @param i : section 번호. 첫번째 section인지 확인하는데 사용한다.
+	 * @param t : buildSection이 끝난 section
+	 * @return 해당 section의 record들. printObjectCode와 같이 한 줄씩 출력한다.
+	 */
+	ArrayList<String> generateSection(int i, TokenTable t) {
+		ArrayList<String> records=new ArrayList<String>();
 		String str="";
-		//int[] count=new int[3];
 		
-		for(int i=0;i<TokenList.size();i++) {
-			//count[i]=0;
-			for(int j=0;j<TokenList.get(i).tokenList.size();j++) {
-				TokenList.get(i).makeObjectCode(j);	
-				//if(!TokenList.get(i).getObjectCode(j).matches("")) {
-				//	count[i]++;
-				//}	
+		for(int j=0;j<t.tokenList.size();j++)
+			t.makeObjectCode(j);
+		
+		ArrayList<Token> a=t.tokenList;
+		str="H"+t.tokenList.get(0).label+"\t";	//H부분
+		str=str.concat(String.format("%012X", t.size));
+		records.add(str);
+		for(int j=0;j<t.tokenList.size();j++) {
+			if(a.get(0).operator.contains("EXTDEF")) {	//D부분
+				str="D";
+				for(int k=0;k<t.tokenList.get(0).numberOfOperand;k++) 
+					str=str.concat(a.get(0).operand[k]+t.symTab.search(a.get(0).operand[k]));
+				records.add(str);
 			}
-			
+			else if(a.get(0).operator.contains("EXTREF")) {	//R부분
+				str="R";
+				for(int k=0;k<t.tokenList.get(0).numberOfOperand;k++) {
+					str=str.concat(a.get(0).operand[k]);
+					if(k==0 && i==0) str=str.concat(" ");
+				}
+				records.add(str);
+			}	
 		}
 		
-		
-		for(int i=0;i<TokenList.size();i++) {	//codeList에 저장
-			ArrayList<Token> a=TokenList.get(i).tokenList;
-			str="H"+TokenList.get(i).tokenList.get(0).label+"\t";	//H부분
-			str=str.concat(String.format("%012X", TokenList.get(i).size));
-			codeList.add(str);
-			for(int j=0;j<TokenList.get(i).tokenList.size();j++) {
-				if(a.get(0).operator.contains("EXTDEF")) {	//D부분
-					str="D";
-					for(int k=0;k<TokenList.get(i).tokenList.get(0).numberOfOperand;k++) 
-						str=str.concat(a.get(0).operand[k]+TokenList.get(i).symTab.search(a.get(0).operand[k]));
-					codeList.add(str);
-				}
-				else if(a.get(0).operator.contains("EXTREF")) {	//R부분
-					str="R";
-					for(int k=0;k<TokenList.get(i).tokenList.get(0).numberOfOperand;k++) {
-						str=str.concat(a.get(0).operand[k]);
-						if(k==0 && i==0) str=str.concat(" ");
-					}
-					codeList.add(str);
-				}	
+		int count=0;
+		String temp="";
+		str=String.format("T%06X",0);
+		boolean restart=false;	// block이 바뀐 후 아직 object code가 나오지 않았으면 true
+		ArrayList<Token> text=t.tokensInAddressOrder();
+		for(int j=0;j<text.size();j++) {//T부분. program block이 있으면 block 순서대로 출력하고, block이 바뀌면 새 record를 시작한다
+			boolean newBlock= j>0 && text.get(j).block!=text.get(j-1).block;
+			if(count+text.get(j).byteSize>30||text.get(j).operator.contains("LTORG")||(newBlock && count>0)) {
+				str=str.concat(String.format("%02X",count));
+				str=str.concat(String.format("%s",temp));
+				records.add(str);
+				str=String.format("T%06X",text.get(j).location);
+				temp="";
+				count=0;
 			}
-			
-			int count=0;
-			String temp="";
-			str=String.format("T%06X",0);
-			for(int j=0;j<a.size();j++) {//T부분
-				if(count+a.get(j).byteSize>30||a.get(j).operator.contains("LTORG")) {
-					str=str.concat(String.format("%02X",count));
-					str=str.concat(String.format("%s",temp));
-					codeList.add(str);
-					str=String.format("T%06X",a.get(j).location);
-					temp="";
-					count=0;
-				}
-				temp=temp.concat(a.get(j).objectCode);
-				count+=a.get(j).byteSize;
+			if(newBlock) restart=true;
+			if(restart && text.get(j).objectCode.length()>0) {	// 새 block의 record는 첫 object code의 주소에서 시작한다
+				if(count==0) str=String.format("T%06X",text.get(j).location);
+				restart=false;
 			}
+			temp=temp.concat(text.get(j).objectCode);
+			count+=text.get(j).byteSize;
+		}
+		if(count>0 || t.blockOrder==null) {
 			str=str.concat(String.format("%02X",count));
 			str=str.concat(String.format("%s",temp));
-			codeList.add(str);
-			
-			String[] op=new String[0];
-			for(int j=0;j<a.size();j++) {//m부분
-				if(a.get(j).operator.contains("EXTREF")) {
-					 op=new String[a.get(j).numberOfOperand];
-					for(int k=0;k<op.length;k++)
-						op[k]=a.get(j).operand[k];
-				}
-				if(op.length!=0) {
-					for(int k=0;k<op.length;k++) {
-						if(!a.get(j).operator.contains("EXTREF")&&a.get(j).operand[0].contains(op[k])) {
-							if(!a.get(j).operand[0].contains("-")) {
-								str=String.format("M%06X",a.get(j).location+1);
-								str=str.concat(String.format("%02X",a.get(j+1).location-a.get(j).location+1));
-								str=str.concat(String.format("+%s", a.get(j).operand[0]));
-								codeList.add(str);
-							}
-							else {
-								String[] tt=a.get(j).operand[0].split("-");
-								str=String.format("M%06X",a.get(j).location);
-								str=str.concat(String.format("%02X",2*(TokenList.get(i).size-a.get(j).location)));
-								str=str.concat(String.format("+%s", tt[0]));
-								codeList.add(str);
-								str=String.format("M%06X",a.get(j).location);
-								str=str.concat(String.format("%02X",2*(TokenList.get(i).size-a.get(j).location)));
-								str=str.concat(String.format("-%s", tt[1]));
-								codeList.add(str);
-								break;
-							}
-							
+			records.add(str);
+		}
+		
+		String[] op=new String[0];
+		for(int j=0;j<a.size();j++) {//m부분
+			if(a.get(j).operator.contains("EXTREF")) {
+				 op=new String[a.get(j).numberOfOperand];
+				for(int k=0;k<op.length;k++)
+					op[k]=a.get(j).operand[k];
+			}
+			if(op.length!=0) {
+				for(int k=0;k<op.length;k++) {
+					if(!a.get(j).operator.contains("EXTREF")&&a.get(j).operand[0].contains(op[k])) {
+						if(!a.get(j).operand[0].contains("-")) {
+							str=String.format("M%06X",a.get(j).location+1);
+							str=str.concat(String.format("%02X",a.get(j+1).location-a.get(j).location+1));
+							str=str.concat(String.format("+%s", a.get(j).operand[0]));
+							records.add(str);
 						}
+						else {
+							String[] tt=a.get(j).operand[0].split("-");
+							str=String.format("M%06X",a.get(j).location);
+							str=str.concat(String.format("%02X",2*(t.size-a.get(j).location)));
+							str=str.concat(String.format("+%s", tt[0]));
+							records.add(str);
+							str=String.format("M%06X",a.get(j).location);
+							str=str.concat(String.format("%02X",2*(t.size-a.get(j).location)));
+							str=str.concat(String.format("-%s", tt[1]));
+							records.add(str);
+							break;
+						}
+						
 					}
 				}
 			}
-			
-			str="E";
-			if(i==0)str=str.concat("000000");
-			codeList.add(str);
-			codeList.add("\n");
 		}
+		
+		str="E";
+		if(i==0)str=str.concat("000000");
+		records.add(str);
+		records.add("\n");
+		return records;
+	}
+	
+	/**
+	 * 모든 section의 object code를 생성하면서 output의 sink들에 출력한다. section은 한번씩만 방문한다.
+	 * @param output : 출력물을 받아갈 sink들. 닫는 것은 호출한 쪽에서 한다.
+	 */
+	void writeOutputs(AssemblyOutput output) throws IOException {
+		for(int i=0;i<TokenList.size();i++)
+			output.section(TokenList.get(i), generateSection(i, TokenList.get(i)));
 	}
 	
 	/**
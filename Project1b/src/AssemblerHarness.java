@@ -0,0 +1,364 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * 어셈블 방식들의 출력이 기준 엔진(ReferenceAssembler)과 바이트 단위로 같은지,
+ * 그리고 성능이 기준치보다 나빠지지 않았는지 확인하는 harness. <br>
+ * 기준 엔진도 Token 분리, makeObjectCode 등은 Assembler와 같이 쓰므로, input.txt는 저장소에 있는
+ * output_20160270.txt, symtab_20160270.txt, literaltab_20160270.txt(golden)와도 비교한다. 기준 엔진의 출력도 golden과 같아야 한다.<br>
+ * 기준 엔진은 program block(USE)을 처리하지 못하므로, USE를 사용하는 input_use.txt는
+ * 직접 확인하여 저장해 둔 output_use.txt, symtab_use.txt, literaltab_use.txt와만 비교한다.<br>
+ * 직접 작성한 소스(기본값 input.txt, input_use.txt)와 생성한 소스를 corpus로 사용하고, mode와 corpus의 조합마다
+ * 여러 번 어셈블하여 처리량(lines/s), 라인당 할당량, p99 지연시간을 기록한다.<br>
+ * 출력이 하나라도 다르거나, -baseline으로 준 이전 결과보다 -budget 비율 이상 나빠지면 실패(종료 코드 1)한다.
+ *
+ * 사용법 :
+ *   java AssemblerHarness [-corpus 파일]... [-generate 2000,50000] [-modes sequential,pipeline,...]
+ *                         [-runs 10] [-baseline 이전결과.tsv] [-save 결과.tsv] [-budget 0.25] [-golden 폴더]
+ *   -golden : golden 파일이 있는 폴더. 기본값은 실행 폴더(Assembler가 출력하는 곳)이다.
+ *
+ * 라인당 할당량은 harness thread의 할당량에 pipeline 단계, 병렬 토큰 분리, 출력 thread가
+ * ThreadAllocation에 기록한 할당량을 더한 것이다.
+ */
+public class AssemblerHarness {
+	/** Assembler.MODES 외에 비교하는 방식. watch 모드의 재어셈블 경로이다. */
+	static final String WATCH="watch";
+
+	/** input.txt의 출력과 비교할 golden 파일 이름 */
+	static final String GOLDEN_CORPUS="input.txt";
+	static final String[] GOLDEN_FILES={"output_20160270.txt", "symtab_20160270.txt", "literaltab_20160270.txt"};
+	/** program block(USE)을 사용하는 corpus. 기준 엔진 대신 golden 파일과만 비교한다 */
+	static final String USE_CORPUS="input_use.txt";
+	static final String[] USE_GOLDEN_FILES={"output_use.txt", "symtab_use.txt", "literaltab_use.txt"};
+
+	InstTable instTable;
+	/** harness의 어셈블들이 함께 쓰는 문자열 pool. harness가 끝나면 함께 수거된다 */
+	InternPool internPool;
+	File workDir;
+	int runs;
+	/** golden 파일이 있는 폴더 */
+	File goldenDir;
+
+	/**
+	 * mode 하나를 corpus 하나에 대해 측정한 결과
+	 */
+	static class Result {
+		String mode;
+		String corpus;
+		int lines;
+		boolean same;
+		String diff;
+		double linesPerSecond;
+		double p99Millis;
+		double allocPerLine;
+
+		/** 기준치와 비교할 때 쓰는 key */
+		String key() {
+			return mode+"\t"+corpus;
+		}
+	}
+
+	/**
+	 * 클래스 초기화.
+	 * @param instTable : 모든 어셈블이 같이 사용하는 instruction 명세
+	 * @param workDir : corpus와 출력 파일을 둘 폴더
+	 * @param runs : mode, corpus 조합마다 어셈블하는 횟수
+	 */
+	public AssemblerHarness(InstTable instTable, File workDir, int runs) {
+		this.instTable=instTable;
+		this.internPool=new InternPool();
+		this.workDir=workDir;
+		this.runs=runs;
+		this.goldenDir=new File(System.getProperty("user.dir"));
+	}
+
+	/**
+	 * corpus 하나에 대해 기준 엔진과 mode를 실행하고 결과를 비교, 측정한다.
+	 * @param mode : Assembler.MODES 중 하나 또는 watch
+	 * @param name : 결과에 표시할 corpus 이름
+	 * @param corpus : input 파일의 절대 경로
+	 */
+	public Result measure(String mode, String name, File corpus) throws IOException {
+		File expected=new File(workDir, "reference");
+		File actual=new File(workDir, mode);
+		expected.mkdirs();
+		actual.mkdirs();
+		boolean reference=!name.equals(USE_CORPUS);
+		if(reference)
+			new ReferenceAssembler(instTable).assemble(corpus.getPath(), out(expected), sym(expected), lit(expected));
+
+		Result result=new Result();
+		result.mode=mode;
+		result.corpus=name;
+		result.lines=Files.readAllLines(corpus.toPath()).size();
+
+		long[] elapsed=new long[runs];
+		long allocated=0;
+		for(int r=0;r<runs;r++) {
+			long bytes=allocatedBytes();
+			long start=System.nanoTime();
+			run(mode, corpus, actual);
+			elapsed[r]=System.nanoTime()-start;
+			allocated+=allocatedBytes()-bytes;
+		}
+		Arrays.sort(elapsed);
+		long median=elapsed[runs/2];
+		result.linesPerSecond= median==0 ? 0 : result.lines/(median/1e9);
+		result.p99Millis=elapsed[Math.min(runs-1, (int)Math.ceil(runs*0.99)-1)]/1e6;
+		result.allocPerLine= result.lines==0 ? 0 : (double)allocated/runs/result.lines;
+
+		if(!reference)
+			result.diff=compareGolden(USE_GOLDEN_FILES, actual);
+		else {
+			result.diff=compareAll(expected, actual);
+			if(result.diff==null && name.equals(GOLDEN_CORPUS)) {
+				result.diff=compareGolden(GOLDEN_FILES, expected);
+				if(result.diff!=null) result.diff="reference "+result.diff;
+				else result.diff=compareGolden(GOLDEN_FILES, actual);
+			}
+		}
+		result.same= result.diff==null;
+		return result;
+	}
+
+	/**
+	 * 두 폴더의 출력(object program, symbol table, literal table)을 비교한다.
+	 * @return 같으면 null, 다르면 처음 달라지는 곳의 설명
+	 */
+	static String compareAll(File expected, File actual) throws IOException {
+		String diff=compare(out(expected), out(actual));
+		if(diff==null) diff=compare(sym(expected), sym(actual));
+		if(diff==null) diff=compare(lit(expected), lit(actual));
+		return diff;
+	}
+
+	/**
+	 * 폴더의 출력을 golden 파일과 비교한다. golden 파일이 없으면 다른 것으로 본다.
+	 * @param goldenFiles : object program, symbol table, literal table 순서의 golden 파일 이름
+	 * @return 같으면 null, 다르면 처음 달라지는 곳의 설명
+	 */
+	String compareGolden(String[] goldenFiles, File actual) throws IOException {
+		String[] produced={out(actual), sym(actual), lit(actual)};
+		for(int i=0;i<goldenFiles.length;i++) {
+			File golden=new File(goldenDir, goldenFiles[i]);
+			if(!golden.isFile()) return "golden "+golden+" not found";
+			String diff=compare(golden.getPath(), produced[i]);
+			if(diff!=null) return "golden "+goldenFiles[i]+": "+diff;
+		}
+		return null;
+	}
+
+	/** mode로 corpus를 한번 어셈블하여 dir에 출력한다. */
+	void run(String mode, File corpus, File dir) throws IOException {
+		if(mode.equals(WATCH)) {
+			new AssemblyWatcher(instTable, corpus.getPath(), out(dir), sym(dir), lit(dir)).reassemble();
+			return;
+		}
+		AssemblyOutput output=new AssemblyOutput()
+				.addSink(new ObjectProgramSink(out(dir)))
+				.addSink(new SymbolTableSink(sym(dir)))
+				.addSink(new LiteralTableSink(lit(dir)));
+		if(!new Assembler(instTable, internPool).assemble(mode, corpus.getPath(), output))
+			throw new IOException(mode+" failed on "+corpus);
+	}
+
+	static String out(File dir) { return new File(dir, "output.txt").getPath(); }
+	static String sym(File dir) { return new File(dir, "symtab.txt").getPath(); }
+	static String lit(File dir) { return new File(dir, "literaltab.txt").getPath(); }
+
+	/**
+	 * 두 파일을 바이트 단위로 비교한다.
+	 * @return 같으면 null, 다르면 처음 달라지는 위치를 설명하는 문자열
+	 */
+	static String compare(String expectedFile, String actualFile) throws IOException {
+		byte[] expected=Files.readAllBytes(new File(expectedFile).toPath());
+		byte[] actual=Files.readAllBytes(new File(actualFile).toPath());
+		if(Arrays.equals(expected, actual)) return null;
+		int i=0;
+		while(i<expected.length && i<actual.length && expected[i]==actual[i]) i++;
+		int line=1;
+		for(int k=0;k<i;k++) if(expected[k]=='\n') line++;
+		return new File(actualFile).getName()+" differs at byte "+i+" (line "+line+"), size "+actual.length+" vs "+expected.length;
+	}
+
+	/** harness thread와 어셈블의 작업 thread들이 지금까지 할당한 바이트 수. 측정할 수 없으면 0 */
+	static long allocatedBytes() {
+		return ThreadAllocation.current()+ThreadAllocation.total();
+	}
+
+	/**
+	 * 예제 input과 같은 형태의 소스를 lines 줄 정도 만든다.
+	 * 첫 section(COPY)과 마지막 section(WRREC, END) 사이에 RDREC과 같은 section을 이름을 바꾸어 반복하고,
+	 * 일부 section은 매크로 호출로 작성하여 매크로 프로세서도 함께 거치게 한다.
+	 * @param lines : 대략의 라인 수
+	 * @param seed : 매크로를 사용할 section을 고르는 난수 seed
+	 */
+	static String generate(int lines, long seed) {
+		Random random=new Random(seed);
+		StringBuilder source=new StringBuilder();
+		source.append("CLRS\tMACRO\t&R1,&R2,&R3\n\tCLEAR\t&R1\n\tCLEAR\t&R2\n\tCLEAR\t&R3\n\tMEND\n");
+		source.append("COPY\tSTART\t0\tCOPY FILE FROM IN TO OUTPUT\n\tEXTDEF\tBUFFER,BUFEND,LENGTH\n\tEXTREF\tRDREC,WRREC\n")
+			.append("FIRST\tSTL\tRETADR\tSAVE RETURN ADDRESS\nCLOOP\t+JSUB\tRDREC\tREAD INPUT RECORD\n\tLDA\tLENGTH\n\tCOMP\t#0\n")
+			.append("\tJEQ\tENDFIL\n\t+JSUB\tWRREC\n\tJ\tCLOOP\nENDFIL\tLDA\t=C'EOF'\n\tSTA\tBUFFER\n\tLDA\t#3\n\tSTA\tLENGTH\n")
+			.append("\t+JSUB\tWRREC\n\tJ\t@RETADR\nRETADR\tRESW\t1\nLENGTH\tRESW\t1\n\tLTORG\nBUFFER\tRESB\t4096\n")
+			.append("BUFEND\tEQU\t*\nMAXLEN\tEQU\tBUFEND-BUFFER\n");
+		int count=0;
+		int current=27;
+		while(current<lines) {
+			source.append("RD").append(name(count++)).append("\tCSECT\n.\n.\tSUBROUTINE TO READ RECORD INTO BUFFER\n.\n")
+				.append("\tEXTREF\tBUFFER,LENGTH,BUFEND\n");
+			if(random.nextBoolean()) source.append("\tCLRS\tX,A,S\n");
+			else source.append("\tCLEAR\tX\n\tCLEAR\tA\n\tCLEAR\tS\n");
+			source.append("\tLDT\tMAXLEN\nRLOOP\tTD\tINPUT\n\tJEQ\tRLOOP\n\tRD\tINPUT\n\tCOMPR\tA,S\n\tJEQ\tEXIT\n")
+				.append("\t+STCH\tBUFFER,X\n\tTIXR\tT\n\tJLT\tRLOOP\nEXIT\t+STX\tLENGTH\n\tRSUB\n")
+				.append("INPUT\tBYTE\tX'F1'\nMAXLEN\tWORD\tBUFEND-BUFFER\n");
+			current+=22;
+		}
+		source.append("WRREC\tCSECT\n\tEXTREF\tLENGTH,BUFFER\n\tCLEAR\tX\n\t+LDT\tLENGTH\nWLOOP\tTD\t=X'05'\n\tJEQ\tWLOOP\n")
+			.append("\t+LDCH\tBUFFER,X\n\tWD\t=X'05'\n\tTIXR\tT\n\tJLT\tWLOOP\n\tRSUB\n\tEND\tFIRST");
+		return source.toString();
+	}
+
+	/** section 이름에 사용할 알파벳 이름. label은 알파벳만 허용된다. */
+	static String name(int n) {
+		StringBuilder s=new StringBuilder();
+		for(int i=0;i<4;i++) {
+			s.append((char)('A'+n%26));
+			n/=26;
+		}
+		return s.toString();
+	}
+
+	/**
+	 * 이전에 저장한 결과를 읽는다.
+	 * @return key -> 결과
+	 */
+	static HashMap<String, Result> loadBaseline(String fileName) throws IOException {
+		HashMap<String, Result> baseline=new HashMap<String, Result>();
+		BufferedReader bufReader=new BufferedReader(new FileReader(fileName));
+		try {
+			String line;
+			while((line=bufReader.readLine())!=null) {
+				String[] field=line.split("\t");
+				if(field.length<5 || field[0].startsWith("#")) continue;
+				Result result=new Result();
+				result.mode=field[0];
+				result.corpus=field[1];
+				result.linesPerSecond=Double.parseDouble(field[2]);
+				result.p99Millis=Double.parseDouble(field[3]);
+				result.allocPerLine=Double.parseDouble(field[4]);
+				baseline.put(result.key(), result);
+			}
+		} finally {
+			bufReader.close();
+		}
+		return baseline;
+	}
+
+	/**
+	 * 기준치보다 budget 비율 이상 나빠진 항목을 찾는다.
+	 * @return 나빠진 항목의 설명. 없으면 null
+	 */
+	static String regression(Result result, Result base, double budget) {
+		if(base==null) return null;
+		if(result.linesPerSecond<base.linesPerSecond*(1-budget))
+			return String.format("throughput %.0f < %.0f lines/s", result.linesPerSecond, base.linesPerSecond);
+		if(result.p99Millis>base.p99Millis*(1+budget))
+			return String.format("p99 %.2f > %.2f ms", result.p99Millis, base.p99Millis);
+		if(result.allocPerLine>base.allocPerLine*(1+budget))
+			return String.format("alloc %.0f > %.0f bytes/line", result.allocPerLine, base.allocPerLine);
+		return null;
+	}
+
+	/**
+	 * harness의 메인 루틴
+	 */
+	public static void main(String[] args) throws IOException {
+		ArrayList<String> corpora=new ArrayList<String>();
+		String generated="2000,50000";
+		String modes=String.join(",", Assembler.MODES)+","+WATCH;
+		int runs=10;
+		String baselineFile=null;
+		String saveFile=null;
+		double budget=0.25;
+		String goldenDir=null;
+		for(int i=0;i+1<args.length;i+=2) {
+			if(args[i].equals("-corpus")) corpora.add(args[i+1]);
+			else if(args[i].equals("-generate")) generated=args[i+1];
+			else if(args[i].equals("-modes")) modes=args[i+1];
+			else if(args[i].equals("-runs")) runs=Math.max(1, Integer.parseInt(args[i+1]));
+			else if(args[i].equals("-baseline")) baselineFile=args[i+1];
+			else if(args[i].equals("-save")) saveFile=args[i+1];
+			else if(args[i].equals("-budget")) budget=Double.parseDouble(args[i+1]);
+			else if(args[i].equals("-golden")) goldenDir=args[i+1];
+		}
+		if(corpora.isEmpty()) {
+			corpora.add(GOLDEN_CORPUS);
+			corpora.add(USE_CORPUS);
+		}
+
+		File workDir=Files.createTempDirectory("assembler-harness").toFile();
+		AssemblerHarness harness=new AssemblerHarness(InstTable.shared("inst.txt"), workDir, runs);
+		if(goldenDir!=null) harness.goldenDir=new File(goldenDir);
+		HashMap<String, Result> baseline= baselineFile==null ? new HashMap<String, Result>() : loadBaseline(baselineFile);
+
+		ArrayList<String> names=new ArrayList<String>();
+		ArrayList<File> files=new ArrayList<File>();
+		for(String corpus : corpora) {
+			names.add(corpus);
+			files.add(Assembler.inputPath(corpus).getAbsoluteFile());
+		}
+		for(String size : generated.split(",")) {
+			if(size.trim().length()==0) continue;
+			File file=new File(workDir, "generated-"+size.trim()+".txt");
+			Files.write(file.toPath(), generate(Integer.parseInt(size.trim()), 20160270L).getBytes());
+			names.add("generated-"+size.trim());
+			files.add(file);
+		}
+
+		ArrayList<Result> results=new ArrayList<Result>();
+		boolean failed=false;
+		System.out.println(String.format("%-10s %-20s %8s %12s %10s %12s  %s", "mode", "corpus", "lines", "lines/s", "p99 ms", "alloc/line", "status"));
+		for(int c=0;c<files.size();c++) {
+			for(String mode : modes.split(",")) {
+				Result result=harness.measure(mode, names.get(c), files.get(c));
+				results.add(result);
+				String problem= result.same ? regression(result, baseline.get(result.key()), budget) : "OUTPUT DIFF: "+result.diff;
+				if(problem!=null) failed=true;
+				System.out.println(String.format("%-10s %-20s %8d %12.0f %10.2f %12.0f  %s", mode, result.corpus, result.lines,
+						result.linesPerSecond, result.p99Millis, result.allocPerLine, problem==null ? "ok" : problem));
+			}
+		}
+
+		if(saveFile!=null) {
+			BufferedWriter writer=new BufferedWriter(new FileWriter(saveFile));
+			try {
+				writer.write("#mode\tcorpus\tlines/s\tp99 ms\talloc/line\n");
+				for(Result result : results)
+					writer.write(result.key()+"\t"+result.linesPerSecond+"\t"+result.p99Millis+"\t"+result.allocPerLine+"\n");
+			} finally {
+				writer.close();
+			}
+		}
+		delete(workDir);
+		System.out.println(failed ? "FAILED" : "PASSED");
+		System.exit(failed ? 1 : 0);
+	}
+
+	/** 폴더와 그 안의 파일을 지운다. */
+	static void delete(File file) {
+		File[] children=file.listFiles();
+		if(children!=null)
+			for(File child : children) delete(child);
+		file.delete();
+	}
+}
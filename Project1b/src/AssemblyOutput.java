@@ -0,0 +1,304 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 어셈블 결과물을 출력하는 클래스. <br>
+ * section을 한번씩만 방문하면서, 등록된 모든 sink(object program, symbol table, literal table, listing, memory image)에
+ * 같은 section을 나누어준다. 출력물이 몇 개이든 section 순회는 한번이다.<br>
+ * 각 sink는 버퍼링된 AsyncOutputStream에 쓰므로 실제 파일 I/O는 별도의 thread에서 수행된다.<br>
+ * 출력은 같은 폴더의 임시 파일에 쓰고 close()가 성공해야 원래 이름으로 바꾼다.
+ * 어셈블이 실패하면 abort()로 임시 파일을 지우므로 이전 출력 파일은 그대로 남고, 일부만 써진 출력 파일은 생기지 않는다.
+ */
+public class AssemblyOutput {
+	/** 출력물을 받아가는 sink들 */
+	ArrayList<OutputSink> sinks;
+	/** 지금까지 출력한 section 수 */
+	int sectionCount;
+
+	/**
+	 * 클래스 초기화. sink는 addSink로 등록한다.
+	 */
+	public AssemblyOutput() {
+		sinks=new ArrayList<OutputSink>();
+		sectionCount=0;
+	}
+
+	/**
+	 * sink를 등록한다.
+	 * @param sink : 출력물을 받아갈 sink
+	 * @return 자기 자신. 연속해서 등록할 수 있다.
+	 */
+	public AssemblyOutput addSink(OutputSink sink) {
+		sinks.add(sink);
+		return this;
+	}
+
+	/**
+	 * 완성된 section 하나를 모든 sink에 전달한다. section은 번호 순서대로 전달되어야 한다.
+	 * @param t : buildSection, generateSection이 끝난 section
+	 * @param records : generateSection이 만든 record들
+	 */
+	public void section(TokenTable t, List<String> records) throws IOException {
+		for(int i=0;i<sinks.size();i++)
+			sinks.get(i).section(sectionCount, t, records);
+		sectionCount++;
+	}
+
+	/**
+	 * 모든 sink를 닫는다. 남은 내용이 모두 파일에 써진 후에 리턴한다.
+	 * 모든 sink가 성공적으로 닫혀야 출력 파일들을 교체하고, 하나라도 실패하면 모두 버린다.
+	 * 가장 먼저 발생한 예외를 전달한다.
+	 */
+	public void close() throws IOException {
+		IOException failure=null;
+		for(int i=0;i<sinks.size();i++) {
+			try {
+				sinks.get(i).close();
+			} catch (IOException e) {
+				if(failure==null) failure=e;
+			}
+		}
+		for(int i=0;i<sinks.size() && failure==null;i++) {
+			try {
+				sinks.get(i).commit();
+			} catch (IOException e) {
+				failure=e;
+			}
+		}
+		if(failure!=null) {
+			abort();
+			throw failure;
+		}
+	}
+
+	/**
+	 * 어셈블이 실패했을 때 모든 sink를 닫고 아직 교체하지 않은 출력을 버린다. 이미 close()가 끝났다면 아무것도 하지 않는다.
+	 */
+	public void abort() {
+		for(int i=0;i<sinks.size();i++)
+			sinks.get(i).abort();
+	}
+
+	/**
+	 * 비동기로 써지는 텍스트 파일을 연다. FileWriter와 같이 기본 charset을 사용한다.
+	 * @param fileName : 파일 이름
+	 */
+	static Writer openText(String fileName) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(new AsyncOutputStream(new FileOutputStream(fileName))));
+	}
+
+	/**
+	 * 비동기로 써지는 바이너리 파일을 연다.
+	 * @param fileName : 파일 이름
+	 */
+	static OutputStream openBinary(String fileName) throws IOException {
+		return new BufferedOutputStream(new AsyncOutputStream(new FileOutputStream(fileName)));
+	}
+}
+
+/**
+ * section 단위로 출력물을 받아가는 곳.
+ */
+interface OutputSink {
+	/**
+	 * 완성된 section 하나를 출력한다.
+	 * @param index : section 번호
+	 * @param t : 출력할 section
+	 * @param records : 해당 section의 object program record들
+	 */
+	void section(int index, TokenTable t, List<String> records) throws IOException;
+
+	/** 남은 출력을 모두 쓰고 닫는다. */
+	void close() throws IOException;
+
+	/** 닫힌 출력을 원래 이름의 파일로 교체한다. */
+	void commit() throws IOException;
+
+	/** 출력을 닫고 교체하지 않은 내용은 버린다. */
+	void abort();
+}
+
+/**
+ * 파일 하나로 출력하는 sink. 출력은 같은 폴더의 임시 파일에 쓰고, commit()에서 이름을 바꾸어 한번에 교체한다.
+ */
+abstract class FileSink implements OutputSink {
+	/** 교체할 출력 파일 */
+	Path target;
+	/** 실제로 쓰고 있는 임시 파일 */
+	Path temp;
+	/** temp에 쓰는 stream */
+	Closeable stream;
+
+	FileSink(String fileName) throws IOException {
+		target=new File(fileName).getAbsoluteFile().toPath();
+		temp=File.createTempFile(target.getFileName().toString()+".", ".tmp", target.getParent().toFile()).toPath();	// 출력 파일과 같은 권한으로 만들어진다
+		temp.toFile().deleteOnExit();		// 중간에 종료되어도 임시 파일이 남지 않게 한다. 교체된 후에는 지울 것이 없다
+	}
+
+	/** 임시 파일에 쓰는 텍스트 출력을 연다. */
+	Writer openText() throws IOException {
+		Writer writer=AssemblyOutput.openText(temp.toString());
+		stream=writer;
+		return writer;
+	}
+
+	/** 임시 파일에 쓰는 바이너리 출력을 연다. */
+	OutputStream openBinary() throws IOException {
+		OutputStream out=AssemblyOutput.openBinary(temp.toString());
+		stream=out;
+		return out;
+	}
+
+	public void close() throws IOException {
+		stream.close();
+	}
+
+	public void commit() throws IOException {
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	public void abort() {
+		try {
+			if(stream!=null) stream.close();
+		} catch (IOException e) {
+			// 버릴 출력이므로 닫다가 난 오류는 무시한다
+		}
+		try {
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
+
+/**
+ * object program(H, D, R, T, M, E record)을 출력한다. printObjectCode와 같은 형식이다.
+ */
+class ObjectProgramSink extends FileSink {
+	Writer writer;
+
+	public ObjectProgramSink(String fileName) throws IOException {
+		super(fileName);
+		writer=openText();
+	}
+
+	public void section(int index, TokenTable t, List<String> records) throws IOException {
+		for(int i=0;i<records.size();i++)
+			writer.write(records.get(i)+"\n");
+	}
+}
+
+/**
+ * section별 symbol table을 출력한다. printSymbolTable과 같은 형식이다.
+ */
+class SymbolTableSink extends FileSink {
+	Writer writer;
+
+	public SymbolTableSink(String fileName) throws IOException {
+		super(fileName);
+		writer=openText();
+	}
+
+	public void section(int index, TokenTable t, List<String> records) throws IOException {
+		Assembler.writeSymbolTable(writer, t);
+	}
+}
+
+/**
+ * section별 literal table을 출력한다. printLiteralTable과 같은 형식이다.
+ */
+class LiteralTableSink extends FileSink {
+	Writer writer;
+
+	public LiteralTableSink(String fileName) throws IOException {
+		super(fileName);
+		writer=openText();
+	}
+
+	public void section(int index, TokenTable t, List<String> records) throws IOException {
+		Assembler.writeLiteralTable(writer, t);
+	}
+}
+
+/**
+ * 어셈블리 리스팅(주소, 소스, object code)을 출력한다.
+ * 주석 라인은 주소와 object code 없이 소스만 출력한다.
+ */
+class ListingSink extends FileSink {
+	Writer writer;
+
+	public ListingSink(String fileName) throws IOException {
+		super(fileName);
+		writer=openText();
+	}
+
+	public void section(int index, TokenTable t, List<String> records) throws IOException {
+		for(int j=0;j<t.tokenList.size();j++) {
+			Token token=t.tokenList.get(j);
+			if(token.label.contains(".")) {		// 주석 라인
+				writer.write("    \t"+token.label+"\t"+token.operator+"\n");
+				continue;
+			}
+			String operand=token.operand[0];
+			for(int k=1;k<token.numberOfOperand;k++)
+				operand=operand.concat(","+token.operand[k]);
+			writer.write(String.format("%04X\t%s\t%s\t%s\t%s\n", token.location, token.label, token.operator, operand, token.objectCode));
+		}
+		writer.write("\n");
+	}
+}
+
+/**
+ * section들을 0번지부터 차례대로 적재했을 때의 메모리 이미지를 출력한다.
+ * 각 section은 앞 section의 크기만큼 떨어진 곳에 놓이고, object code가 없는 곳(RESW, RESB 등)은 0으로 채운다.
+ */
+class MemoryImageSink extends FileSink {
+	OutputStream out;
+	/** 현재 section의 시작 주소 */
+	int base;
+	/** 지금까지 출력한 바이트 수 */
+	long position;
+
+	public MemoryImageSink(String fileName) throws IOException {
+		super(fileName);
+		out=openBinary();
+		base=0;
+		position=0;
+	}
+
+	public void section(int index, TokenTable t, List<String> records) throws IOException {
+		ArrayList<Token> tokens=t.tokensInAddressOrder();
+		for(int j=0;j<tokens.size();j++) {
+			Token token=tokens.get(j);
+			if(token.objectCode.length()==0) continue;
+			pad(base+token.location);
+			String code=token.objectCode;
+			for(int k=0;k+1<code.length();k+=2) {	// byteSize와 같이 홀수 길이의 마지막 한 자리는 버린다
+				out.write(Character.digit(code.charAt(k),16)*16+Character.digit(code.charAt(k+1),16));
+				position++;
+			}
+		}
+		pad(base+t.size);
+		base+=t.size;
+	}
+
+	/** address 앞까지를 0으로 채운다. 이미 지나간 주소라면 아무것도 하지 않는다. */
+	void pad(long address) throws IOException {
+		while(position<address) {
+			out.write(0);
+			position++;
+		}
+	}
+}
@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Assembler의 각 단계를 별도의 thread에서 동시에 수행하는 pipeline 실행 모드. <br>
+ * read -> tokenize -> layout(pass1의 주소 할당 + pass2) -> emit(record 출력) 의 네 단계가
+ * 크기가 정해진 queue로 연결되어, 한 section의 토큰 분리가 끝나면 바로 다음 단계로 넘어간다.<br>
+ * 결과로 만들어지는 object program은 순차 실행(pass1, pass2, printObjectCode)과 같다.<br>
+ * 모든 출력물은 emit 단계에서 section이 끝나는 대로 만들어지므로, 출력이 끝난 section은 바로 버려진다.
+ */
+public class AssemblyPipeline {
+	/** read -> tokenize 사이에서 대기할 수 있는 라인 수 */
+	public static final int LINE_QUEUE_SIZE=4096;
+	/** tokenize -> layout, layout -> emit 사이에서 대기할 수 있는 section 수 */
+	public static final int SECTION_QUEUE_SIZE=4;
+
+	/* queue의 끝을 알리는 표시. 내용이 아닌 참조로 비교한다. */
+	static final String END_OF_LINES=new String("");
+	static final FinishedSection END_OF_RECORDS=new FinishedSection(null, null);
+	final TokenTable endOfSections;
+
+	/** pipeline이 사용할 명세, 매크로, section 목록을 가진 assembler */
+	Assembler assembler;
+
+	BlockingQueue<String> lineQueue;
+	BlockingQueue<TokenTable> sectionQueue;
+	BlockingQueue<FinishedSection> recordQueue;
+
+	/** 단계별 thread */
+	Thread[] stage;
+	/** 가장 먼저 실패한 단계의 예외 */
+	volatile Throwable failure;
+
+	/**
+	 * 클래스 초기화.
+	 * @param assembler : instruction 명세가 세팅된 assembler
+	 */
+	public AssemblyPipeline(Assembler assembler) {
+		this.assembler=assembler;
+		this.endOfSections=new TokenTable(null, null, null);
+		lineQueue=new ArrayBlockingQueue<String>(LINE_QUEUE_SIZE);
+		sectionQueue=new ArrayBlockingQueue<TokenTable>(SECTION_QUEUE_SIZE);
+		recordQueue=new ArrayBlockingQueue<FinishedSection>(SECTION_QUEUE_SIZE);
+	}
+
+	/**
+	 * inputFile을 어셈블하여 section이 끝나는 대로 output의 sink들에 출력한다.
+	 * 모든 단계가 성공하면 output을 닫아 출력 파일을 교체하고, 실패하면 output의 출력을 버린다.
+	 * @param inputFile : input 파일 이름
+	 * @param output : 출력물을 받아갈 sink들
+	 * @return 모든 단계가 성공하면 true
+	 */
+	public boolean run(final String inputFile, final AssemblyOutput output) {
+		stage=new Thread[] {
+			new Thread(() -> guard(() -> read(inputFile)), "assembler-read"),
+			new Thread(() -> guard(() -> tokenize()), "assembler-tokenize"),
+			new Thread(() -> guard(() -> layout()), "assembler-layout"),
+			new Thread(() -> guard(() -> emit(output)), "assembler-emit"),
+		};
+		for(int i=0;i<stage.length;i++)
+			stage[i].start();
+		try {
+			for(int i=0;i<stage.length;i++)
+				stage[i].join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			synchronized(this) {
+				if(failure==null) failure=e;
+			}
+			stopAll();
+		}
+		if(failure==null) {
+			try {
+				output.close();
+				return true;
+			} catch (IOException e) {
+				failure=e;
+			}
+		}
+		output.abort();		// 실패한 어셈블의 출력은 일부만 써졌으므로 남기지 않는다
+		failure.printStackTrace();
+		return false;
+	}
+
+	/**
+	 * 1단계 : input 파일을 한 줄씩 읽어 lineQueue에 넣는다.
+	 */
+	void read(String inputFile) throws IOException, InterruptedException {
+		BufferedReader bufReader = new BufferedReader(new FileReader(Assembler.inputPath(inputFile)));
+		try {
+			String line = null;
+			while((line = bufReader.readLine()) != null)
+				lineQueue.put(line);
+		} finally {
+			bufReader.close();
+			lineQueue.put(END_OF_LINES);
+		}
+	}
+
+	/**
+	 * 2단계 : 매크로를 전개하면서 라인을 토큰으로 분리하고, 다음 section이 시작되거나 input이 끝나면
+	 * 완성된 section을 sectionQueue로 넘긴다.
+	 */
+	void tokenize() throws InterruptedException {
+		TokenTable current=null;
+		Iterator<String> lines=assembler.macroProcessor.expand(new LineIterator());
+		while(lines.hasNext()) {
+			String line=lines.next();
+			if(Assembler.isSectionStart(line)) {
+				if(current!=null) sectionQueue.put(current);
+				current=assembler.createSection();
+			}
+			Assembler.checkSectionStarted(current!=null, line);
+			current.putToken(line);
+		}
+		if(current!=null) sectionQueue.put(current);
+		sectionQueue.put(endOfSections);
+	}
+
+	/**
+	 * 3단계 : section별로 주소를 할당하고 object code와 record를 만들어 recordQueue로 넘긴다.
+	 */
+	void layout() throws InterruptedException {
+		int index=0;
+		TokenTable t;
+		while((t=sectionQueue.take())!=endOfSections) {
+			assembler.buildSection(t);
+			ArrayList<String> records=assembler.generateSection(index++, t);
+			recordQueue.put(new FinishedSection(t, records));
+		}
+		recordQueue.put(END_OF_RECORDS);
+	}
+
+	/**
+	 * 4단계 : 완성된 section을 output의 sink들에 출력한다.
+	 * 출력이 끝난 section은 더 이상 참조하지 않는다. output은 모든 단계가 끝난 후 run에서 닫는다.
+	 */
+	void emit(AssemblyOutput output) throws IOException, InterruptedException {
+		FinishedSection section;
+		while((section=recordQueue.take())!=END_OF_RECORDS)
+			output.section(section.table, section.records);
+	}
+
+	/**
+	 * layout이 끝나 출력만 남은 section.
+	 */
+	static class FinishedSection {
+		TokenTable table;
+		ArrayList<String> records;
+
+		FinishedSection(TokenTable table, ArrayList<String> records) {
+			this.table=table;
+			this.records=records;
+		}
+	}
+
+	/** 각 단계의 본문 */
+	interface Body {
+		void run() throws Exception;
+	}
+
+	/**
+	 * 단계를 수행하다 예외가 발생하면 기록하고 나머지 단계를 멈춘다.
+	 * 한 단계가 멈추면 queue에서 기다리는 다른 단계가 영원히 깨어나지 못하기 때문이다.
+	 * 단계가 끝나면 그 thread의 할당량을 ThreadAllocation에 기록한다.
+	 */
+	void guard(Body body) {
+		long allocated=ThreadAllocation.current();
+		try {
+			body.run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Throwable e) {
+			synchronized(this) {
+				if(failure==null) failure=e;
+			}
+			stopAll();
+		} finally {
+			ThreadAllocation.record(allocated);
+		}
+	}
+
+	/** 모든 단계를 interrupt 한다. */
+	void stopAll() {
+		for(int i=0;i<stage.length;i++)
+			if(stage[i]!=Thread.currentThread()) stage[i].interrupt();
+	}
+
+	/**
+	 * lineQueue를 매크로 프로세서에 넘겨주기 위한 Iterator.
+	 */
+	class LineIterator implements Iterator<String> {
+		String nextLine;
+
+		@Override
+		public boolean hasNext() {
+			if(nextLine==null) {
+				try {
+					nextLine=lineQueue.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("pipeline interrupted", e);
+				}
+			}
+			return nextLine!=END_OF_LINES;
+		}
+
+		@Override
+		public String next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			String line=nextLine;
+			nextLine=null;
+			return line;
+		}
+	}
+}
@@ -0,0 +1,208 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * input 파일이 바뀔 때마다 다시 어셈블하는 watch 모드. <br>
+ * InstTable은 처음 한번만 읽고, 이전 어셈블에서 section별로 만든 결과(record, symbol table, literal table)를
+ * section의 소스를 key로 기억해 둔다. 파일이 바뀌면 소스가 달라진 section만 다시 어셈블하고,
+ * 출력 파일은 임시 파일에 쓴 후 이름을 바꾸어 한번에 교체한다.<br>
+ * section끼리는 서로 참조하지 않으므로 바뀌지 않은 section의 결과는 그대로 재사용할 수 있다.
+ */
+public class AssemblyWatcher {
+	/** 저장 도중의 연속된 변경을 하나로 묶기 위해 기다리는 시간(ms) */
+	public static final int SETTLE_MILLIS=5;
+
+	InstTable instTable;
+	String inputFile;
+	String outputFile;
+	String symtabFile;
+	String literaltabFile;
+	/** section 소스 -> 이전에 어셈블한 결과 */
+	HashMap<String, SectionResult> cache;
+
+	/**
+	 * 클래스 초기화.
+	 * @param instTable : 미리 읽어둔 instruction 명세
+	 * @param inputFile : 지켜볼 input 파일 이름
+	 * @param outputFile : object program을 저장할 파일 이름
+	 * @param symtabFile : symbol table을 저장할 파일 이름
+	 * @param literaltabFile : literal table을 저장할 파일 이름
+	 */
+	public AssemblyWatcher(InstTable instTable, String inputFile, String outputFile, String symtabFile, String literaltabFile) {
+		this.instTable=instTable;
+		this.inputFile=inputFile;
+		this.outputFile=outputFile;
+		this.symtabFile=symtabFile;
+		this.literaltabFile=literaltabFile;
+		this.cache=new HashMap<String, SectionResult>();
+	}
+
+	/**
+	 * section 하나를 어셈블한 결과. 출력 형태의 문자열로 가지고 있는다.
+	 */
+	static class SectionResult {
+		String object;
+		String symtab;
+		String literaltab;
+	}
+
+	/**
+	 * 한번 어셈블한 후 input 파일이 바뀔 때마다 다시 어셈블한다. interrupt 될 때까지 리턴하지 않는다.
+	 */
+	public void run() throws IOException {
+		File input=Assembler.inputPath(inputFile).getAbsoluteFile();
+		Path dir=input.getParentFile().toPath();
+		Path name=input.toPath().getFileName();
+		WatchService watcher=FileSystems.getDefault().newWatchService();
+		try {
+			dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			attempt(System.nanoTime());
+			while(true) {
+				WatchKey key=watcher.take();
+				long changed=System.nanoTime();
+				boolean relevant=false;
+				for(WatchEvent<?> event : key.pollEvents())
+					if(name.equals(event.context())) relevant=true;
+				key.reset();
+				if(!relevant) continue;
+				Thread.sleep(SETTLE_MILLIS);
+				WatchKey more;
+				while((more=watcher.poll())!=null) {	// 이미 쌓인 변경은 이번 어셈블에 포함된다
+					more.pollEvents();
+					more.reset();
+				}
+				attempt(changed);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			watcher.close();
+		}
+	}
+
+	/**
+	 * 다시 어셈블하고 결과를 출력한다. 처음 시작할 때도 같다.
+	 * 작성 중인 소스의 오류나 저장 도중 잠깐 없어진 파일 때문에 watch가 멈추지 않도록, 실패는 출력만 하고 다음 변경을 기다린다.
+	 * 실패하면 출력 파일은 바뀌지 않는다.
+	 * @param changed : 변경을 감지한 시점
+	 */
+	void attempt(long changed) {
+		try {
+			report(reassemble(), changed);
+		} catch (RuntimeException | IOException e) {
+			System.out.println("assembly failed: "+e);
+		}
+	}
+
+	/** 변경을 감지한 시점부터 출력이 끝날 때까지의 시간을 출력한다. */
+	void report(int[] count, long changed) {
+		System.out.println(String.format("reassembled %d of %d sections in %.1f ms", count[0], count[1], (System.nanoTime()-changed)/1e6));
+	}
+
+	/**
+	 * input 파일을 다시 읽어 바뀐 section만 어셈블하고 모든 출력 파일을 교체한다.
+	 * @return {다시 어셈블한 section 수, 전체 section 수}
+	 */
+	public int[] reassemble() throws IOException {
+		Assembler assembler=new Assembler(instTable);
+		ArrayList<ArrayList<String>> sections=new ArrayList<ArrayList<String>>();
+		BufferedReader bufReader=new BufferedReader(new FileReader(Assembler.inputPath(inputFile)));
+		try {
+			Iterator<String> lines=assembler.macroProcessor.expand(Assembler.readLines(bufReader));
+			while(lines.hasNext()) {
+				String line=lines.next();
+				if(Assembler.isSectionStart(line)) sections.add(new ArrayList<String>());
+				Assembler.checkSectionStarted(!sections.isEmpty(), line);
+				sections.get(sections.size()-1).add(line);
+			}
+		} finally {
+			bufReader.close();
+		}
+
+		HashMap<String, SectionResult> next=new HashMap<String, SectionResult>();
+		ArrayList<SectionResult> results=new ArrayList<SectionResult>();
+		int assembled=0;
+		for(int i=0;i<sections.size();i++) {
+			StringBuilder key=new StringBuilder();
+			if(i==0) key.append('\0');		// 첫번째 section은 E record가 다르다
+			for(String line : sections.get(i)) key.append(line).append('\n');
+			String source=key.toString();
+			SectionResult result=cache.get(source);
+			if(result==null) {
+				result=assemble(assembler, i, sections.get(i));
+				assembled++;
+			}
+			next.put(source, result);
+			results.add(result);
+		}
+		cache=next;
+
+		StringBuilder object=new StringBuilder(), symtab=new StringBuilder(), literaltab=new StringBuilder();
+		for(SectionResult result : results) {
+			object.append(result.object);
+			symtab.append(result.symtab);
+			literaltab.append(result.literaltab);
+		}
+		replace(outputFile, object);
+		replace(symtabFile, symtab);
+		replace(literaltabFile, literaltab);
+		return new int[] {assembled, sections.size()};
+	}
+
+	/**
+	 * section 하나를 어셈블하여 출력 형태로 만든다.
+	 */
+	static SectionResult assemble(Assembler assembler, int index, ArrayList<String> lines) throws IOException {
+		TokenTable t=assembler.createSection();
+		for(String line : lines) t.putToken(line);
+		assembler.buildSection(t);
+		SectionResult result=new SectionResult();
+		StringBuilder object=new StringBuilder();
+		for(String record : assembler.generateSection(index, t)) object.append(record).append('\n');
+		result.object=object.toString();
+		StringWriter writer=new StringWriter();
+		Assembler.writeSymbolTable(writer, t);
+		result.symtab=writer.toString();
+		writer=new StringWriter();
+		Assembler.writeLiteralTable(writer, t);
+		result.literaltab=writer.toString();
+		return result;
+	}
+
+	/**
+	 * 같은 폴더의 임시 파일에 내용을 쓴 후 이름을 바꾸어 fileName을 한번에 교체한다.
+	 * 읽는 쪽은 이전 내용 전체 또는 새 내용 전체만 보게 된다.
+	 */
+	static void replace(String fileName, CharSequence content) throws IOException {
+		Path target=new File(fileName).getAbsoluteFile().toPath();
+		Path temp=File.createTempFile(target.getFileName().toString()+".", ".tmp", target.getParent().toFile()).toPath();	// 출력 파일과 같은 권한으로 만들어진다
+		try {
+			Writer writer=new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp)));
+			try {
+				writer.append(content);
+			} finally {
+				writer.close();
+			}
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
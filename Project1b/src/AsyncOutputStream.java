@@ -0,0 +1,144 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * 출력을 chunk 단위로 모아두었다가 별도의 thread에서 실제 파일에 쓰는 OutputStream. <br>
+ * 출력을 만드는 쪽은 파일 I/O를 기다리지 않고 다음 section을 처리할 수 있다.<br>
+ * 쓰기 thread에서 발생한 예외는 다음 write, flush 또는 close에서 IOException으로 전달된다.
+ */
+public class AsyncOutputStream extends OutputStream {
+	/** 한번에 넘기는 chunk의 크기 */
+	public static final int CHUNK_SIZE=64*1024;
+	/** 쓰기 thread가 처리하지 못하고 대기할 수 있는 chunk 수 */
+	public static final int QUEUE_SIZE=16;
+
+	/* 더 이상 chunk가 없음을 알리는 표시 */
+	static final byte[] END_OF_CHUNKS=new byte[0];
+
+	OutputStream out;
+	BlockingQueue<byte[]> queue;
+	Thread writer;
+	/** 현재 채우고 있는 chunk */
+	byte[] buffer;
+	int count;
+	volatile IOException failure;
+	boolean closed;
+
+	/**
+	 * 클래스 초기화. 쓰기 thread를 바로 시작한다.
+	 * @param out : 실제로 출력할 곳. close할 때 함께 닫힌다.
+	 */
+	public AsyncOutputStream(OutputStream out) {
+		this.out=out;
+		this.queue=new ArrayBlockingQueue<byte[]>(QUEUE_SIZE);
+		this.buffer=new byte[CHUNK_SIZE];
+		this.count=0;
+		this.writer=new Thread(() -> drain(), "assembler-output");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(count==buffer.length) handOff();
+		buffer[count++]=(byte)b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len>0) {
+			if(count==buffer.length) handOff();
+			int n=Math.min(len, buffer.length-count);
+			System.arraycopy(b, off, buffer, count, n);
+			count+=n;
+			off+=n;
+			len-=n;
+		}
+	}
+
+	/**
+	 * 지금까지 모인 내용을 쓰기 thread로 넘긴다. 파일에 써질 때까지 기다리지는 않는다.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if(count>0) handOff();
+		check();
+	}
+
+	/**
+	 * 남은 내용을 모두 파일에 쓴 후 닫는다.
+	 * 남은 내용을 넘기다 실패해도 쓰기 thread는 끝내고 파일은 닫는다.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) return;
+		closed=true;
+		try {
+			if(count>0) handOff();
+		} finally {
+			finish();
+		}
+	}
+
+	/** 쓰기 thread에 끝을 알리고 파일을 닫을 때까지 기다린다. */
+	void finish() throws IOException {
+		try {
+			queue.put(END_OF_CHUNKS);
+			writer.join();
+		} catch (InterruptedException e) {
+			writer.interrupt();		// queue에서 기다리는 쓰기 thread를 깨워서 파일을 닫게 한다
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while closing output", e);
+		}
+		check();
+	}
+
+	/** 채운 chunk를 queue에 넣고 새 chunk를 준비한다. */
+	void handOff() throws IOException {
+		check();
+		try {
+			queue.put(count==buffer.length ? buffer : Arrays.copyOf(buffer, count));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while writing output", e);
+		}
+		buffer=new byte[CHUNK_SIZE];
+		count=0;
+	}
+
+	/** 쓰기 thread에서 예외가 발생했다면 전달한다. */
+	void check() throws IOException {
+		if(failure!=null) throw failure;
+	}
+
+	/** 
+	 * 쓰기 thread의 본문. queue의 chunk를 순서대로 파일에 쓴다.
+	 * 쓰기에 실패한 후에도 출력하는 쪽이 queue에서 막히지 않도록 남은 chunk를 계속 꺼내서 버린다.
+	 */
+	void drain() {
+		long allocated=ThreadAllocation.current();
+		try {
+			byte[] chunk;
+			while((chunk=queue.take())!=END_OF_CHUNKS) {
+				if(failure!=null) continue;
+				try {
+					out.write(chunk);
+				} catch (IOException e) {
+					failure=e;
+				}
+			}
+		} catch (InterruptedException e) {
+			failure=new IOException("output thread interrupted", e);
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				if(failure==null) failure=e;
+			}
+			ThreadAllocation.record(allocated);
+		}
+	}
+}
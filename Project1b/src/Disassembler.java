@@ -0,0 +1,439 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Assembler가 출력한 object program(H, D, R, T, M, E record) 또는 memory image를 다시 어셈블리로 바꾸는 disassembler. <br>
+ * InstTable로부터 opcode의 첫 바이트 256가지 각각에 해당하는 Instruction을 미리 표로 만들어 두고,
+ * 바이트 배열을 앞에서부터 한번씩 읽으면서 표를 찾아 format 2/3/4와 nixbpe 주소 지정 방식을 복원한다.<br>
+ * D record의 symbol은 label로, M record의 external symbol은 operand 옆에 표시한다.
+ *
+ * 사용법 :
+ *   java Disassembler output_20160270.txt [출력 파일]
+ *   java Disassembler image_20160270.bin [출력 파일]
+ *   java Disassembler -verify image_20160270.bin output_20160270.txt
+ *     : object program을 적재한 결과와 memory image가 같은지 비교한다.
+ */
+public class Disassembler {
+	/** 레지스터 번호별 이름. format 2 operand에 사용한다. */
+	static final String[] REGISTER= {"A","X","L","B","S","T","F","7","PC","SW","10","11","12","13","14","15"};
+	/** memory image에서 이 길이 이상 0이 이어지면 RESB로 표시한다. */
+	public static final int ZERO_RUN=16;
+
+	/** opcode의 첫 바이트로 바로 찾을 수 있는 Instruction 표. format 3/4는 n, i 비트 4가지 모두 같은 명령어를 가리킨다. */
+	Instruction[] dispatch;
+
+	/**
+	 * 클래스 초기화. instTable로부터 dispatch 표를 만든다.
+	 * @param instTable : instruction 명세가 저장된 InstTable
+	 */
+	public Disassembler(InstTable instTable) {
+		dispatch=new Instruction[256];
+		for(Instruction inst : instTable.instMap.values()) {
+			if(inst.format>=3) {
+				for(int ni=0;ni<4;ni++)
+					dispatch[(inst.opcode & 0xFC) | ni]=inst;
+			}
+			else dispatch[inst.opcode & 0xFF]=inst;
+		}
+	}
+
+	/**
+	 * section 하나의 적재 결과. memory[i]는 section 시작으로부터 i번째 바이트이고,
+	 * loaded[i]가 false인 곳은 T record로 채워지지 않은 곳(RESW, RESB 등)이다.
+	 */
+	static class Section {
+		String name;
+		int start;
+		int length;
+		byte[] memory;
+		boolean[] loaded;
+		/** D record의 symbol 주소(오름차순)와 이름 */
+		int[] labelAddress;
+		String[] labelName;
+		/** M record의 수정 위치(오름차순)와 external symbol */
+		int[] referenceAddress;
+		String[] referenceName;
+		/** R record의 external symbol 목록 */
+		ArrayList<String> extref;
+
+		Section(String name, int start, int length) {
+			this.name=name;
+			this.start=start;
+			this.length=length;
+			this.memory=new byte[length];
+			this.loaded=new boolean[length];
+			this.labelAddress=new int[0];
+			this.labelName=new String[0];
+			this.referenceAddress=new int[0];
+			this.referenceName=new String[0];
+			this.extref=new ArrayList<String>();
+		}
+
+		/** offset까지 적재할 수 있도록 memory를 늘린다. */
+		void ensure(int offset) {
+			if(offset<memory.length) return;
+			int size=Math.max(offset+1, memory.length*2);
+			memory=Arrays.copyOf(memory, size);
+			loaded=Arrays.copyOf(loaded, size);
+		}
+
+		/** 실제로 적재된 마지막 바이트 다음 위치와 H record의 길이 중 큰 값 */
+		int size() {
+			int end=memory.length;
+			while(end>length && !loaded[end-1]) end--;
+			return end;
+		}
+	}
+
+	/**
+	 * object program 파일을 읽어 section별로 적재한다.
+	 * @param fileName : object program 파일 이름
+	 * @return 파일에 나온 순서대로의 section들
+	 */
+	public ArrayList<Section> loadObjectProgram(String fileName) throws IOException {
+		ArrayList<Section> sections=new ArrayList<Section>();
+		BufferedReader bufReader=new BufferedReader(new FileReader(new File(fileName)));
+		try {
+			Section current=null;
+			ArrayList<Integer> labelAddress=new ArrayList<Integer>();
+			ArrayList<String> labelName=new ArrayList<String>();
+			ArrayList<Integer> referenceAddress=new ArrayList<Integer>();
+			ArrayList<String> referenceName=new ArrayList<String>();
+			String line;
+			while((line=bufReader.readLine())!=null) {
+				if(line.length()==0) continue;
+				char type=line.charAt(0);
+				if(type=='H') {
+					current=header(line);
+					sections.add(current);
+				}
+				else if(current==null) continue;
+				else if(type=='T') text(current, line);
+				else if(type=='D') {
+					for(int i=1;i+12<=line.length();i+=12) {
+						int address=hex(line, i+6, i+12);
+						if(address<0) break;
+						labelName.add(line.substring(i, i+6).trim());
+						labelAddress.add(address-current.start);
+					}
+				}
+				else if(type=='R') {
+					for(int i=1;i<line.length();i+=6)
+						current.extref.add(line.substring(i, Math.min(i+6, line.length())).trim());
+				}
+				else if(type=='M' && line.length()>10) {
+					int address=hex(line, 1, 7);
+					if(address<0) continue;
+					referenceAddress.add(address-current.start);
+					referenceName.add(line.substring(9));
+				}
+				else if(type=='E') {
+					finish(current, labelAddress, labelName, referenceAddress, referenceName);
+					current=null;
+				}
+			}
+			if(current!=null) finish(current, labelAddress, labelName, referenceAddress, referenceName);
+		} finally {
+			bufReader.close();
+		}
+		return sections;
+	}
+
+	/**
+	 * AssemblyOutput의 MemoryImageSink가 출력한 memory image를 section 하나로 적재한다.
+	 * ZERO_RUN 이상 이어지는 0은 적재되지 않은 곳으로 본다.
+	 * @param fileName : memory image 파일 이름
+	 */
+	public Section loadImage(String fileName) throws IOException {
+		byte[] image=Files.readAllBytes(new File(fileName).toPath());
+		Section section=new Section("IMAGE", 0, image.length);
+		section.memory=image;
+		int i=0;
+		while(i<image.length) {
+			int end=i;
+			while(end<image.length && image[end]==0) end++;
+			boolean loaded= end-i<ZERO_RUN;
+			if(end==i) end++;
+			for(int k=i;k<end;k++) section.loaded[k]=loaded;
+			i=end;
+		}
+		return section;
+	}
+
+	/** H record를 읽어 새 section을 만든다. 이름 뒤에 tab이 있는 Assembler의 형식과 6자리 고정 형식 모두 읽는다. */
+	static Section header(String line) {
+		String name;
+		String rest;
+		int tab=line.indexOf('\t');
+		if(tab>0) {
+			name=line.substring(1, tab);
+			rest=line.substring(tab+1);
+		}
+		else {
+			name=line.substring(1, Math.min(7, line.length())).trim();
+			rest= line.length()>7 ? line.substring(7) : "";
+		}
+		int start=Math.max(hex(rest, 0, 6), 0);
+		int length=Math.max(hex(rest, rest.length()-6, rest.length()), 0);
+		return new Section(name, start, length);
+	}
+
+	/** T record의 내용을 section에 적재한다. 길이 필드와 실제 내용 중 짧은 쪽까지만 적재한다. */
+	static void text(Section section, String line) {
+		int start=hex(line, 1, 7);
+		int length=hex(line, 7, 9);
+		if(start<0 || length<0) return;
+		int offset=start-section.start;
+		for(int k=0;k<length && 9+2*k+2<=line.length();k++) {
+			int value=hex(line, 9+2*k, 9+2*k+2);
+			if(value<0) break;
+			section.ensure(offset+k);
+			section.memory[offset+k]=(byte)value;
+			section.loaded[offset+k]=true;
+		}
+	}
+
+	/** 모아둔 D, M record 정보를 주소 순서대로 정리하여 section에 넣는다. */
+	static void finish(Section section, ArrayList<Integer> labelAddress, ArrayList<String> labelName,
+			ArrayList<Integer> referenceAddress, ArrayList<String> referenceName) {
+		section.labelAddress=new int[labelAddress.size()];
+		section.labelName=new String[labelName.size()];
+		sortInto(labelAddress, labelName, section.labelAddress, section.labelName);
+		section.referenceAddress=new int[referenceAddress.size()];
+		section.referenceName=new String[referenceName.size()];
+		sortInto(referenceAddress, referenceName, section.referenceAddress, section.referenceName);
+		labelAddress.clear();
+		labelName.clear();
+		referenceAddress.clear();
+		referenceName.clear();
+	}
+
+	/** 주소 순서대로 정렬하여 배열에 옮긴다. 주소가 같으면 나온 순서를 유지한다. */
+	static void sortInto(ArrayList<Integer> address, ArrayList<String> name, int[] sortedAddress, String[] sortedName) {
+		Integer[] order=new Integer[address.size()];
+		for(int i=0;i<order.length;i++) order[i]=i;
+		Arrays.sort(order, (a,b)->Integer.compare(address.get(a), address.get(b)));
+		for(int i=0;i<order.length;i++) {
+			sortedAddress[i]=address.get(order[i]);
+			sortedName[i]=name.get(order[i]);
+		}
+	}
+
+	/**
+	 * 문자열의 [from, to) 부분을 16진수로 읽는다.
+	 * @return 읽은 값. 범위를 벗어나거나 16진수가 아니면 -1
+	 */
+	static int hex(String s, int from, int to) {
+		if(from<0 || to>s.length() || from>=to) return -1;
+		int value=0;
+		for(int i=from;i<to;i++) {
+			int d=Character.digit(s.charAt(i), 16);
+			if(d<0) return -1;
+			value=value*16+d;
+		}
+		return value;
+	}
+
+	/**
+	 * section 하나를 disassemble하여 writer에 출력한다.
+	 * 각 줄은 주소, object code, label, 명령어, operand 순서이며 tab으로 구분된다.
+	 * @param section : 적재된 section
+	 * @param writer : 출력할 곳
+	 */
+	public void disassemble(Section section, Writer writer) throws IOException {
+		StringBuilder line=new StringBuilder(64);
+		byte[] m=section.memory;
+		boolean[] loaded=section.loaded;
+		int size=section.size();
+		int label=0;		// 다음에 나올 label의 위치
+		int reference=0;	// 다음에 나올 external reference의 위치
+
+		writer.write(section.name+"\tSTART\t"+Integer.toHexString(section.start).toUpperCase()+"\n");
+		if(!section.extref.isEmpty()) writer.write("\tEXTREF\t"+String.join(",", section.extref)+"\n");
+		int pc=0;
+		while(pc<size) {
+			line.setLength(0);
+			hex6(line, section.start+pc);
+			line.append('\t');
+			if(!loaded[pc]) {	// 적재되지 않은 곳
+				int end=pc;
+				while(end<size && !loaded[end]) end++;
+				line.append('\t');
+				while(label<section.labelAddress.length && section.labelAddress[label]<=pc) line.append(section.labelName[label++]);
+				line.append("\tRESB\t").append(end-pc).append('\n');
+				writer.append(line);
+				pc=end;
+				continue;
+			}
+			int length=instructionLength(m, loaded, pc, size);
+			for(int k=0;k<length;k++) hex2(line, m[pc+k]);
+			line.append('\t');
+			while(label<section.labelAddress.length && section.labelAddress[label]<=pc) line.append(section.labelName[label++]);
+			line.append('\t');
+			Instruction inst=dispatch[m[pc]&0xFF];
+			if(length==1 && (inst==null || inst.format!=1)) {	// 명령어로 읽을 수 없는 바이트
+				line.append("BYTE\tX'");
+				hex2(line, m[pc]);
+				line.append('\'');
+			}
+			else operands(line, m, pc, section.start);
+			while(reference<section.referenceAddress.length && section.referenceAddress[reference]<pc+length) {
+				if(section.referenceAddress[reference]>=pc) line.append('\t').append(section.referenceName[reference]);
+				reference++;
+			}
+			line.append('\n');
+			writer.append(line);
+			pc+=length;
+		}
+		writer.write("\n");
+	}
+
+	/**
+	 * pc에서 시작하는 명령어의 길이를 구한다. 표에 없는 opcode이거나 바이트가 모자라면 1(BYTE)이다.
+	 */
+	int instructionLength(byte[] m, boolean[] loaded, int pc, int size) {
+		Instruction inst=dispatch[m[pc]&0xFF];
+		if(inst==null) return 1;
+		int length;
+		if(inst.format<=2) length=inst.format;
+		else if((m[pc]&3)==0) length=3;			// SIC 형식
+		else if(pc+1<size && (m[pc+1]&0x10)!=0) length=4;	// e 비트
+		else length=3;
+		if(pc+length>size) return 1;
+		for(int k=1;k<length;k++)
+			if(!loaded[pc+k]) return 1;
+		return length;
+	}
+
+	/**
+	 * 명령어 이름과 operand를 복원한다.
+	 *   format 2 : 레지스터 두개. 두번째가 A(0)이면 하나만 표시한다.
+	 *   format 3/4 : n, i 비트로 #, @를, x 비트로 ,X를 표시하고 p, b 비트가 있으면 목표 주소를 계산한다.
+	 */
+	void operands(StringBuilder line, byte[] m, int pc, int start) {
+		Instruction inst=dispatch[m[pc]&0xFF];
+		int b0=m[pc]&0xFF;
+		if(inst.format==1) {
+			line.append(inst.instruction);
+			return;
+		}
+		int b1=m[pc+1]&0xFF;
+		if(inst.format==2) {
+			line.append(inst.instruction).append('\t').append(REGISTER[b1>>4]);
+			if((b1&0xF)!=0) line.append(',').append(REGISTER[b1&0xF]);
+			return;
+		}
+		int ni=b0&3;
+		int b2=m[pc+2]&0xFF;
+		if(ni==0) {		// SIC 형식 : 15비트 주소
+			line.append(inst.instruction).append('\t');
+			hex4(line, ((b1&0x7F)<<8)|b2);
+			if((b1&0x80)!=0) line.append(",X");
+			return;
+		}
+		boolean x=(b1&0x80)!=0, b=(b1&0x40)!=0, p=(b1&0x20)!=0, e=(b1&0x10)!=0;
+		int disp;
+		if(e) {
+			line.append('+');
+			disp=((b1&0xF)<<16)|(b2<<8)|(m[pc+3]&0xFF);
+		}
+		else {
+			disp=((b1&0xF)<<8)|b2;
+			if(p && (disp&0x800)!=0) disp-=0x1000;		// PC relative는 부호가 있다
+		}
+		line.append(inst.instruction).append('\t');
+		if(!x && !b && !p && !e && disp==0 && ni==3) return;	// RSUB과 같이 operand가 없는 경우
+		if(ni==1) line.append('#');
+		else if(ni==2) line.append('@');
+		if(p) hex4(line, start+pc+(e ? 4 : 3)+disp);
+		else if(b) line.append("(B)+").append(disp);
+		else if(ni==1) line.append(disp);
+		else hex4(line, disp);
+		if(x) line.append(",X");
+	}
+
+	static final char[] HEX="0123456789ABCDEF".toCharArray();
+
+	static void hex2(StringBuilder line, byte value) {
+		line.append(HEX[(value>>4)&0xF]).append(HEX[value&0xF]);
+	}
+
+	static void hex4(StringBuilder line, int value) {
+		for(int shift=12;shift>=0;shift-=4) line.append(HEX[(value>>shift)&0xF]);
+	}
+
+	static void hex6(StringBuilder line, int value) {
+		for(int shift=20;shift>=0;shift-=4) line.append(HEX[(value>>shift)&0xF]);
+	}
+
+	/**
+	 * object program을 적재한 결과와 memory image가 같은지 비교한다.
+	 * section들은 MemoryImageSink와 같이 0번지부터 H record의 길이만큼씩 차례로 놓인다고 본다.
+	 * @return 서로 다른 바이트 수
+	 */
+	public static int verify(ArrayList<Section> sections, Section image, Writer writer) throws IOException {
+		int total=0;
+		int base=0;
+		for(Section section : sections) {
+			int mismatch=0;
+			int first=-1;
+			for(int i=0;i<section.memory.length;i++) {
+				if(!section.loaded[i]) continue;
+				int address=base+i;
+				byte expected= address<image.memory.length ? image.memory[address] : 0;
+				if(expected!=section.memory[i] || address>=image.memory.length) {
+					if(first<0) first=i;
+					mismatch++;
+				}
+			}
+			if(mismatch==0) writer.write(section.name+"\tOK\n");
+			else writer.write(section.name+"\t"+mismatch+" bytes differ, first at "+Integer.toHexString(section.start+first).toUpperCase()+"\n");
+			total+=mismatch;
+			base+=section.length;
+		}
+		return total;
+	}
+
+	/**
+	 * disassembler의 메인 루틴
+	 */
+	public static void main(String[] args) {
+		if(args.length==0) {
+			System.out.println("usage: Disassembler <object program | image.bin> [output file]");
+			System.out.println("       Disassembler -verify <image.bin> <object program>");
+			return;
+		}
+		Disassembler disassembler=new Disassembler(new InstTable("inst.txt"));
+		try {
+			if(args[0].equals("-verify") && args.length>=3) {
+				Writer writer=new BufferedWriter(new OutputStreamWriter(System.out));
+				int mismatch=verify(disassembler.loadObjectProgram(args[2]), disassembler.loadImage(args[1]), writer);
+				writer.write(mismatch==0 ? "verify OK\n" : "verify FAILED\n");
+				writer.flush();
+				System.exit(mismatch==0 ? 0 : 1);
+			}
+			Writer writer= args.length>=2 ? AssemblyOutput.openText(args[1]) : new BufferedWriter(new OutputStreamWriter(System.out));
+			try {
+				if(args[0].endsWith(".bin"))
+					disassembler.disassemble(disassembler.loadImage(args[0]), writer);
+				else
+					for(Section section : disassembler.loadObjectProgram(args[0]))
+						disassembler.disassemble(section, writer);
+			} finally {
+				if(args.length>=2) writer.close();
+				else writer.flush();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -14,22 +15,60 @@ public class InstTable {
 	/** 
 	 * inst.data 파일을 불러와 저장하는 공간.
 	 *  명령어의 이름을 집어넣으면 해당하는 Instruction의 정보들을 리턴할 수 있다.
+	 *  파일을 다 읽은 후에는 바꿀 수 없는 map으로 고정되므로 여러 thread의 어셈블이 lock 없이 함께 읽는다.
+	 *  shared()로 나누어 준 table은 openFile로 더 읽을 수 없다.
 	 */
-	HashMap<String, Instruction> instMap;
+	volatile Map<String, Instruction> instMap;
+	/** search()의 결과를 기억해 두는 공간. instMap이 바뀌면 새로 만든다 */
+	volatile ConcurrentHashMap<String, Instruction> lookup;
+	/** lookup이 기억하는 operator의 최대 개수 */
+	public static final int MAX_LOOKUP=4096;
+	/** lookup에서 '해당하는 instruction 없음'을 나타내는 값 */
+	static final Instruction NONE=new Instruction("NONE FF 0");
+	/** instruction 명세 파일 이름 -> 이미 읽어둔 InstTable. 같은 JVM의 어셈블들이 함께 쓴다 */
+	static final ConcurrentHashMap<String, InstTable> shared=new ConcurrentHashMap<String, InstTable>();
+	/** shared()로 공유되는 table인지 여부. true이면 openFile을 거부한다 */
+	volatile boolean frozen;
 	
 	/**
 	 * 클래스 초기화. 파싱을 동시에 처리한다.
 	 * @param instFile : instuction에 대한 명세가 저장된 파일 이름
 	 */
 	public InstTable(String instFile) {
-		instMap = new HashMap<String, Instruction>();
+		instMap = Collections.unmodifiableMap(new HashMap<String, Instruction>());
+		lookup = new ConcurrentHashMap<String, Instruction>();
 		openFile(instFile);
 	}
 	
+	/**
+	 * 같은 명세 파일로 이미 만든 InstTable이 있으면 그것을, 없으면 새로 읽어서 돌려준다.
+	 * 여러 thread가 동시에 처음 부르면 각자 읽을 수 있지만 등록되는 것은 하나뿐이다.
+	 * 공유된 table은 다시 읽을 수 없으므로, 명세를 하나도 읽지 못했으면(파일이 없는 경우 등) 등록하지 않는다.
+	 * @param instFile : instuction에 대한 명세가 저장된 파일 이름
+	 * @return 공유되는 InstTable
+	 * @throws IllegalStateException instFile에서 instruction을 하나도 읽지 못한 경우
+	 */
+	public static InstTable shared(String instFile) {
+		InstTable table=shared.get(instFile);
+		if(table!=null) return table;
+		table=new InstTable(instFile);
+		if(table.instMap.isEmpty())
+			throw new IllegalStateException("no instructions loaded from "+instFile);
+		table.frozen=true;
+		InstTable previous=shared.putIfAbsent(instFile, table);
+		return previous==null ? table : previous;
+	}
+	
 	/**
 	 * 입력받은 이름의 파일을 열고 해당 내용을 파싱하여 instMap에 저장한다.
+	 * 기존 내용에 파일 내용을 더한 새 map을 만들어 한번에 교체하므로, 읽는 쪽은 교체 전이나 후의 map만 보게 된다.
+	 * shared()로 얻은 table은 다른 어셈블들이 함께 쓰고 있으므로 바꿀 수 없다.
+	 * @throws IllegalStateException shared()로 얻은 table인 경우
 	 */
 	public void openFile(String fileName) {
+		if(frozen)
+			throw new IllegalStateException("shared InstTable cannot load "+fileName);
+		HashMap<String, Instruction> loaded=new HashMap<String, Instruction>(instMap);
 		try{
             //파일 객체 생성
 			String dataFolder = System.getProperty("user.dir") + System.getProperty("file.separator") + "src\\";
@@ -39,7 +78,7 @@ public class InstTable {
             String line = null;
             while((line = bufReader.readLine()) != null){
             	Instruction i = new Instruction(line);
-            	instMap.put(i.instruction,i);
+            	loaded.put(i.instruction,i);
             }       
             bufReader.close();
         }catch (FileNotFoundException e) {
@@ -47,6 +86,30 @@ public class InstTable {
         }catch(IOException e){
             System.out.println(e);
         }
+		instMap=Collections.unmodifiableMap(loaded);
+		lookup=new ConcurrentHashMap<String, Instruction>();
+	}
+	
+	/**
+	 * 이름에 operator가 포함된 첫번째 instruction을 찾는다. (instMap의 순서대로 찾는다)
+	 * 한번 찾은 결과는 기억해 두었다가 다음부터 바로 돌려준다.
+	 * @param operator : 찾을 operator
+	 * @return 해당하는 Instruction. 없으면 null
+	 */
+	public Instruction search(String operator) {
+		ConcurrentHashMap<String, Instruction> memo=lookup;
+		Instruction found=memo.get(operator);
+		if(found==null) {
+			found=NONE;
+			for(Map.Entry<String, Instruction> entry : instMap.entrySet()) {
+				if(entry.getKey().contains(operator)) {
+					found=entry.getValue();
+					break;
+				}
+			}
+			if(memo.size()<MAX_LOOKUP) memo.putIfAbsent(operator, found);
+		}
+		return found==NONE ? null : found;
 	}
 	
 	//get, set, search 등의 함수는 자유 구현
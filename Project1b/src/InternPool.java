@@ -0,0 +1,44 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 함께 실행하는 어셈블 묶음(batch)이 공유하는 문자열(label, operator, operand) 공간. <br>
+ * 같은 내용의 문자열은 처음 들어온 인스턴스 하나로 바꾸어 돌려준다.
+ * 조회와 등록은 ConcurrentHashMap의 get/putIfAbsent만 사용하므로 lock 없이 여러 thread에서 호출할 수 있다.<br>
+ * pool은 batch마다 만들어 그 batch의 Assembler들에게 넘겨준다. batch가 끝나 pool을 참조하는 Assembler가 없어지면
+ * 등록된 문자열도 함께 수거되므로, 오래 도는 JVM에서도 이전 batch의 문자열이 남지 않는다.<br>
+ * 한 batch 안에서도 공간이 끝없이 늘지 않도록 MAX_SIZE개가 차면 그 이후의 새 문자열은 등록하지 않고 그대로 돌려준다.
+ */
+public class InternPool {
+	/** 등록할 수 있는 문자열의 최대 개수 */
+	public static final int MAX_SIZE=1<<16;
+
+	/** 문자열 -> 대표 인스턴스 */
+	final ConcurrentHashMap<String, String> pool;
+
+	/**
+	 * 클래스 초기화. 빈 pool을 만든다.
+	 */
+	public InternPool() {
+		pool=new ConcurrentHashMap<String, String>();
+	}
+
+	/**
+	 * 같은 내용의 대표 문자열을 돌려준다. 아직 없으면 str을 대표로 등록한다.
+	 * @param str : 공유할 문자열
+	 * @return str과 내용이 같은 대표 문자열. 공간이 찼으면 str 자신
+	 */
+	public String intern(String str) {
+		String shared=pool.get(str);
+		if(shared!=null) return shared;
+		if(pool.size()>=MAX_SIZE) return str;
+		shared=pool.putIfAbsent(str, str);
+		return shared==null ? str : shared;
+	}
+
+	/**
+	 * @return 등록된 문자열 수
+	 */
+	public int size() {
+		return pool.size();
+	}
+}
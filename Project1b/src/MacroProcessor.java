@@ -0,0 +1,203 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * pass1 앞단에서 MACRO/MEND 정의를 처리하는 매크로 프로세서. <br>
+ * 입력 라인을 하나씩 받아 매크로 정의는 저장하고, 매크로 호출은 본문으로 치환하여 다시 라인 단위로 흘려보낸다.<br>
+ * 전개된 프로그램 전체를 한번에 만들지 않고 Iterator로 한 줄씩 넘겨주므로, 매크로가 많은 소스도 메모리를 적게 사용한다.<br>
+ * 같은 매크로를 같은 인자로 호출하면 이전에 치환한 결과를 재사용한다.<br>
+ * 본문의 label은 그대로 복사되므로, label이 있는 매크로는 한 section에서 한번만 호출할 수 있다.
+ * 두번 이상 호출하면 pass1이 중복된 label로 처리한다.
+ *
+ * 정의 형식 (input과 같이 tab으로 구분) :
+ *   NAME	MACRO	&A,&B
+ *   	...	&A
+ *   	MEND
+ */
+public class MacroProcessor {
+	/** 매크로 전개의 최대 중첩 깊이. 재귀 호출로 인한 무한 전개를 막는다. */
+	public static final int MAX_DEPTH=64;
+	/** 매크로 하나당 기억해두는 (인자 조합 -> 전개 결과)의 최대 개수 */
+	public static final int MAX_MEMO=1024;
+
+	/** 매크로 이름별로 정의를 저장하는 공간 */
+	HashMap<String, Macro> macroMap;
+
+	/**
+	 * 클래스 초기화.
+	 */
+	public MacroProcessor() {
+		macroMap=new HashMap<String, Macro>();
+	}
+
+	/**
+	 * source에서 읽어들인 라인들의 매크로를 전개하여 돌려준다.
+	 * 실제 전개는 반환된 Iterator의 next()가 불릴 때마다 필요한 만큼만 수행된다.
+	 * @param source : 전개 전의 라인들
+	 * @return 매크로 정의가 제거되고 호출이 전개된 라인들
+	 */
+	public Iterator<String> expand(Iterator<String> source) {
+		return new Expansion(source);
+	}
+
+	/**
+	 * 라인을 tab 단위로 분할한다. Token.parsing과 같은 방식으로 빈 칸은 ""로 채운다.
+	 * @param line : 분할할 라인
+	 * @return label, operator, operand, comment 순서의 배열
+	 */
+	static String[] split(String line) {
+		String[] field=new String[4];
+		String[] tmp=line.split("\t");
+		for(int i=0;i<4;i++)
+			field[i]= i<tmp.length ? tmp[i] : "";
+		return field;
+	}
+
+	/**
+	 * 매크로 하나의 정의와 전개 결과를 저장한다.
+	 */
+	static class Macro {
+		String name;
+		/** prototype에 적힌 순서대로의 parameter 이름 */
+		String[] parameter;
+		/** 치환 순서. &A가 &AB의 앞부분을 치환하지 않도록 긴 이름부터 치환한다. */
+		Integer[] replaceOrder;
+		ArrayList<String> body;
+		/** 인자 조합별로 전개 결과를 기억하는 공간 */
+		LinkedHashMap<String, String[]> memo;
+
+		Macro(String name, String parameters) {
+			this.name=name;
+			this.parameter= parameters.matches("") ? new String[0] : parameters.split(",");
+			this.replaceOrder=new Integer[parameter.length];
+			for(int i=0;i<parameter.length;i++)
+				replaceOrder[i]=i;
+			Arrays.sort(replaceOrder, (a,b)->parameter[b].length()-parameter[a].length());
+			this.body=new ArrayList<String>();
+			this.memo=new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+					return size()>MAX_MEMO;
+				}
+			};
+		}
+
+		/**
+		 * 인자에 맞게 본문을 치환한다. 이전에 같은 인자로 치환한 적이 있다면 그 결과를 돌려준다.
+		 * @param arguments : 호출 라인의 operand 부분
+		 * @return 치환된 본문
+		 */
+		String[] instantiate(String arguments) {
+			String[] result=memo.get(arguments);
+			if(result!=null) return result;
+
+			String[] actual= arguments.matches("") ? new String[0] : arguments.split(",");
+			result=new String[body.size()];
+			for(int i=0;i<body.size();i++) {
+				String line=body.get(i);
+				for(int k : replaceOrder)
+					line=line.replace(parameter[k], k<actual.length ? actual[k] : "");
+				result[i]=line;
+			}
+			memo.put(arguments, result);
+			return result;
+		}
+	}
+
+	/**
+	 * 전개 상태를 가지고 있는 Iterator.
+	 * 현재 읽고 있는 source와 전개중인 매크로 본문들을 stack으로 관리한다.
+	 */
+	class Expansion implements Iterator<String> {
+		Deque<Iterator<String>> stack;
+		String nextLine;
+
+		Expansion(Iterator<String> source) {
+			stack=new ArrayDeque<Iterator<String>>();
+			stack.push(source);
+			nextLine=null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(nextLine==null) nextLine=advance();
+			return nextLine!=null;
+		}
+
+		@Override
+		public String next() {
+			if(!hasNext()) throw new NoSuchElementException();
+			String line=nextLine;
+			nextLine=null;
+			return line;
+		}
+
+		/**
+		 * 다음으로 내보낼 라인을 찾는다. 매크로 정의는 저장만 하고, 호출은 본문을 stack에 올린다.
+		 * @return 다음 라인. 더 이상 없으면 null
+		 */
+		String advance() {
+			while(!stack.isEmpty()) {
+				Iterator<String> top=stack.peek();
+				if(!top.hasNext()) {
+					stack.pop();
+					continue;
+				}
+				String line=top.next();
+				if(macroMap.isEmpty() && !line.contains("MACRO")) return line;	// 매크로가 없는 소스는 분할하지 않고 바로 넘긴다
+				String[] field=split(line);
+				if(field[1].equals("MACRO")) {		// 매크로 정의
+					define(field[0], field[2], top);
+					continue;
+				}
+				Macro macro=macroMap.get(field[1]);
+				if(macro==null || field[0].contains(".")) return line;
+
+				if(stack.size()>MAX_DEPTH)
+					throw new IllegalStateException("macro expansion too deep : "+macro.name);
+				String[] expanded=macro.instantiate(field[2]);
+				if(!field[0].matches("")) {	// 호출 라인의 label은 첫 라인에 붙인다
+					ArrayList<String> labeled=new ArrayList<String>(Arrays.asList(expanded));
+					if(expanded.length>0 && split(expanded[0])[0].matches(""))
+						labeled.set(0, field[0]+expanded[0]);
+					else	// 첫 라인에 이미 label이 있거나 본문이 비어 있으면 label만 따로 둔다
+						labeled.add(0, field[0]+"\tEQU\t*");
+					stack.push(labeled.iterator());
+					continue;
+				}
+				stack.push(Arrays.asList(expanded).iterator());
+			}
+			return null;
+		}
+
+		/**
+		 * MEND를 만날때까지 라인을 읽어 매크로를 정의한다. 내부에 다른 MACRO 정의가 있으면 짝이 맞는 MEND까지 읽는다.
+		 * @param name : 매크로 이름
+		 * @param parameters : prototype의 parameter 목록
+		 * @param source : 정의를 읽어들일 곳
+		 * @throws IllegalStateException 짝이 맞는 MEND 전에 source가 끝난 경우
+		 */
+		void define(String name, String parameters, Iterator<String> source) {
+			Macro macro=new Macro(name, parameters);
+			int depth=1;
+			while(source.hasNext()) {
+				String line=source.next();
+				String[] field=split(line);
+				if(field[1].equals("MACRO")) depth++;
+				else if(field[1].equals("MEND") && --depth==0) break;
+				macro.body.add(line);
+			}
+			if(depth>0)
+				throw new IllegalStateException("MEND missing : "+name);
+			macroMap.put(name, macro);
+		}
+	}
+}
@@ -0,0 +1,386 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * AssemblerHarness가 다른 mode들의 출력과 비교하는 기준 엔진. <br>
+ * 처음 제공된 Assembler의 pass1, printSymbolTable, printLiteralTable, pass2, printObjectCode를 그대로 옮겨 둔 것으로,
+ * 이후 Assembler에 추가된 buildSection/generateSection, program block(USE), InstTable.search의 결과 기억을 거치지 않는다.
+ * opcode와 format도 ReferenceTokenTable이 instMap을 처음부터 훑어서 찾는다.<br>
+ * token의 문자열은 InternPool을 거치지 않는다.
+ * 매크로 전개(MacroProcessor), Token의 분리, makeObjectCode, SymbolTable, LiteralTable은 Assembler와 같이 쓰므로
+ * 이 부분의 회귀는 harness의 golden 비교(저장소의 output_20160270.txt 등)로 확인한다.<br>
+ * USE를 사용한 소스는 어셈블할 수 없다.
+ */
+public class ReferenceAssembler {
+	/** instruction 명세를 저장한 공간 */
+	InstTable instTable;
+	/** 읽어들인 input 파일의 내용을 매크로를 전개한 후 한 줄 씩 저장하는 공간. */
+	ArrayList<String> lineList;
+	/** 프로그램의 section별로 symbol table을 저장하는 공간*/
+	ArrayList<SymbolTable> symtabList;
+	ArrayList<LiteralTable> literaltabList;
+	/** 프로그램의 section별로 프로그램을 저장하는 공간*/
+	ArrayList<TokenTable> TokenList;
+	/** Token, 또는 지시어에 따라 만들어진 오브젝트 코드들을 출력 형태로 저장하는 공간. */
+	ArrayList<String> codeList;
+
+	/**
+	 * 클래스 초기화.
+	 * @param instTable : instruction 명세가 세팅된 InstTable
+	 */
+	public ReferenceAssembler(InstTable instTable) {
+		this.instTable = instTable;
+		lineList = new ArrayList<String>();
+		symtabList = new ArrayList<SymbolTable>();
+		literaltabList = new ArrayList<LiteralTable>();
+		TokenList = new ArrayList<TokenTable>();
+		codeList = new ArrayList<String>();
+	}
+
+	/**
+	 * 원래의 순서(pass1, printSymbolTable, printLiteralTable, pass2, printObjectCode)대로 어셈블한다.
+	 * @param inputFile : input 파일 이름
+	 * @param outputFile : object program을 저장할 파일 이름
+	 * @param symtabFile : symbol table을 저장할 파일 이름
+	 * @param literaltabFile : literal table을 저장할 파일 이름
+	 */
+	public void assemble(String inputFile, String outputFile, String symtabFile, String literaltabFile) {
+		loadInputFile(inputFile);
+		pass1();
+		printSymbolTable(symtabFile);
+		printLiteralTable(literaltabFile);
+		pass2();
+		printObjectCode(outputFile);
+	}
+
+	/**
+	 * inputFile을 읽어들여서 매크로를 전개한 후 lineList에 저장한다.
+	 * @param inputFile : input 파일 이름.
+	 */
+	private void loadInputFile(String inputFile) {
+		try{
+			BufferedReader bufReader = new BufferedReader(new FileReader(Assembler.inputPath(inputFile)));
+			try {
+				Iterator<String> lines = new MacroProcessor().expand(Assembler.readLines(bufReader));
+				while(lines.hasNext())
+					lineList.add(lines.next());
+			} finally {
+				bufReader.close();
+			}
+		}catch(IOException e){
+			System.out.println(e);
+		}
+	}
+
+	/** 
+	 * pass1 과정을 수행한다.
+	 *   1) 프로그램 소스를 스캔하여 토큰단위로 분리한 뒤 토큰테이블 생성
+	 *   2) label을 symbolTable에 정리
+	 *   
+	 *    주의사항 : SymbolTable과 TokenTable은 프로그램의 section별로 하나씩 선언되어야 한다.
+	 */
+	private void pass1() {
+		int current=-1;  	//section 번호
+
+		for(int i=0;i<lineList.size();i++) {
+			if(lineList.get(i).contains("START") || lineList.get(i).contains("CSECT") ) { //section 만들기
+				SymbolTable s = new SymbolTable();
+				LiteralTable l = new LiteralTable();
+				TokenTable t= new ReferenceTokenTable(s,l,instTable);
+				TokenList.add(t);
+				literaltabList.add(l);
+				symtabList.add(s);
+				current++;
+			}
+			TokenList.get(current).putToken(lineList.get(i));			// section별로 token 집어넣기
+		}
+		
+		for(int i=0;i<TokenList.size();i++) {
+			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {			// literaltable, symboltable만들기
+				if(TokenList.get(i).tokenList.get(j).operand[0].contains("=") ) {
+					String[] lit=TokenList.get(i).tokenList.get(j).operand[0].split("\'");
+					if(TokenList.get(i).literalTab.search(lit[1])==-1) {
+						TokenList.get(i).literalTab.putLiteral(lit[1], 0);
+					}
+				}
+				if(TokenList.get(i).tokenList.get(j).label.matches("^[a-zA-Z]*$") && !TokenList.get(i).tokenList.get(j).label.matches("")){
+					if(TokenList.get(i).literalTab.search(TokenList.get(i).tokenList.get(j).label)==-1) {
+						TokenList.get(i).symTab.putSymbol(TokenList.get(i).tokenList.get(j).label, 0);
+					}
+				}
+			}
+		}
+		
+		for(int i=0;i<TokenList.size();i++) {
+			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {			// 리터럴 넣기
+				if(TokenList.get(i).tokenList.get(j).operator.contains("LTORG")) {
+					for(int z=0;z<TokenList.get(i).literalTab.literalList.size();z++) {
+						String str="*\t"+TokenList.get(i).literalTab.literalList.get(z);
+						TokenList.get(i).putToken(j+1,str);
+					}
+				}
+				else if(TokenList.get(i).tokenList.get(j).operator.contains("END")){
+					for(int z=0;z<TokenList.get(i).literalTab.literalList.size();z++) {
+						String str="*\t"+TokenList.get(i).literalTab.literalList.get(z);
+						TokenList.get(i).putToken(str);
+					}
+				}
+			}
+		}
+		
+		for(int i=0;i<TokenList.size();i++) {
+			int currentLocation =0;
+			ArrayList<Token> A=TokenList.get(i).tokenList;
+			for(int j=0;j<TokenList.get(i).tokenList.size();j++ ) {
+				A.get(j).location=currentLocation;
+				String temp=A.get(j).operator.replace("+", "");
+				if(A.get(j).label.contains(".")) continue;
+				if(TokenList.get(i).getOpcode(temp)==-1) {	// 주석문이거나 명령어가 없는 라인의 주소처리
+					if(A.get(j).operator.contains("RESW")) {
+						currentLocation+=Integer.parseInt(A.get(j).operand[0])*3;
+					}
+					else if(A.get(j).operator.contains("RESB")) {
+						currentLocation+=Integer.parseInt(A.get(j).operand[0]);
+					}
+					else if(A.get(j).operator.contains("EQU")) {
+						if(A.get(j).operand[0].contains("*")) {
+							continue;
+						}
+						else {
+							String[] str=A.get(j).operand[0].split("-");
+							int[] equTominus=new int[2];
+							for(int k=0;k<j;k++) {
+								if(A.get(k).label.contains(str[0])) equTominus[0]=A.get(k).location;
+								else if(A.get(k).label.contains(str[1])) equTominus[1]=A.get(k).location;
+							}
+							A.get(j).location=equTominus[0]-equTominus[1];
+						}
+					}
+					else if(A.get(j).operator.contains("BYTE") ) 
+						currentLocation+=1;
+					else if(A.get(j).operator.contains("WORD"))
+						currentLocation+=3;
+					else if(A.get(j).label.contains("*")) {
+						if(Character.isDigit(A.get(j).operator.charAt(0))) currentLocation+=A.get(j).operator.length()/2;
+						else currentLocation+=A.get(j).operator.length();
+					}
+				}
+				else {	//instruction 라인 주소처리
+					String str=A.get(j).operator.replace("+", "");
+					currentLocation+=TokenList.get(i).getFormat(str);
+					if(A.get(j).operator.contains("+"))		currentLocation+=1;
+				}
+			}
+			for(int z=0;z<TokenList.get(i).tokenList.size();z++ ) {
+				if( !A.get(z).label.matches("") && TokenList.get(i).symTab.search(A.get(z).label)==0) //symtable 주소처리
+					TokenList.get(i).symTab.modifySymbol(A.get(z).label, A.get(z).location);
+				if( !A.get(z).operator.matches("") && TokenList.get(i).literalTab.search(A.get(z).operator)==0) //literaltable 주소처리
+					TokenList.get(i).literalTab.modifyLiteral(A.get(z).operator, A.get(z).location);
+			}
+			TokenList.get(i).size=currentLocation;	
+		}
+		
+	}
+
+	/**
+	 * 작성된 SymbolTable들을 출력형태에 맞게 출력한다.
+	 * @param fileName : 저장되는 파일 이름
+	 */
+	private void printSymbolTable(String fileName) {
+		try {
+			FileWriter writer = new FileWriter(fileName);
+			for(int i=0;i<TokenList.size();i++) {				
+				for(int j=0;j<TokenList.get(i).symTab.symbolList.size();j++ ) {
+					writer.write(TokenList.get(i).symTab.symbolList.get(j)+"\t\t"+Integer.toHexString(TokenList.get(i).symTab.locationList.get(j))+"\n");
+				}
+				writer.write("\n");
+			}
+			writer.close();
+		} catch (IOException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+	}
+
+	/**
+	 * 작성된 LiteralTable들을 출력형태에 맞게 출력한다.
+	 * @param fileName : 저장되는 파일 이름
+	 */
+	private void printLiteralTable(String fileName) {
+		
+		 try {
+			FileWriter writer = new FileWriter(fileName);
+			for(int i=0;i<TokenList.size();i++) {				
+				for(int j=0;j<TokenList.get(i).literalTab.literalList.size();j++ ) {
+					writer.write(TokenList.get(i).literalTab.literalList.get(j)+" "+Integer.toHexString(TokenList.get(i).literalTab.locationList.get(j))+"\n");
+				}
+			}
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	/**
+	 * pass2 과정을 수행한다.
+	 *   1) 분석된 내용을 바탕으로 object code를 생성하여 codeList에 저장.
+	 */
+	private void pass2() {
+		String str="";
+		//int[] count=new int[3];
+		
+		for(int i=0;i<TokenList.size();i++) {
+			//count[i]=0;
+			for(int j=0;j<TokenList.get(i).tokenList.size();j++) {
+				TokenList.get(i).makeObjectCode(j);	
+				//if(!TokenList.get(i).getObjectCode(j).matches("")) {
+				//	count[i]++;
+				//}	
+			}
+			
+		}
+		
+		
+		for(int i=0;i<TokenList.size();i++) {	//codeList에 저장
+			ArrayList<Token> a=TokenList.get(i).tokenList;
+			str="H"+TokenList.get(i).tokenList.get(0).label+"\t";	//H부분
+			str=str.concat(String.format("%012X", TokenList.get(i).size));
+			codeList.add(str);
+			for(int j=0;j<TokenList.get(i).tokenList.size();j++) {
+				if(a.get(0).operator.contains("EXTDEF")) {	//D부분
+					str="D";
+					for(int k=0;k<TokenList.get(i).tokenList.get(0).numberOfOperand;k++) 
+						str=str.concat(a.get(0).operand[k]+TokenList.get(i).symTab.search(a.get(0).operand[k]));
+					codeList.add(str);
+				}
+				else if(a.get(0).operator.contains("EXTREF")) {	//R부분
+					str="R";
+					for(int k=0;k<TokenList.get(i).tokenList.get(0).numberOfOperand;k++) {
+						str=str.concat(a.get(0).operand[k]);
+						if(k==0 && i==0) str=str.concat(" ");
+					}
+					codeList.add(str);
+				}	
+			}
+			
+			int count=0;
+			String temp="";
+			str=String.format("T%06X",0);
+			for(int j=0;j<a.size();j++) {//T부분
+				if(count+a.get(j).byteSize>30||a.get(j).operator.contains("LTORG")) {
+					str=str.concat(String.format("%02X",count));
+					str=str.concat(String.format("%s",temp));
+					codeList.add(str);
+					str=String.format("T%06X",a.get(j).location);
+					temp="";
+					count=0;
+				}
+				temp=temp.concat(a.get(j).objectCode);
+				count+=a.get(j).byteSize;
+			}
+			str=str.concat(String.format("%02X",count));
+			str=str.concat(String.format("%s",temp));
+			codeList.add(str);
+			
+			String[] op=new String[0];
+			for(int j=0;j<a.size();j++) {//m부분
+				if(a.get(j).operator.contains("EXTREF")) {
+					 op=new String[a.get(j).numberOfOperand];
+					for(int k=0;k<op.length;k++)
+						op[k]=a.get(j).operand[k];
+				}
+				if(op.length!=0) {
+					for(int k=0;k<op.length;k++) {
+						if(!a.get(j).operator.contains("EXTREF")&&a.get(j).operand[0].contains(op[k])) {
+							if(!a.get(j).operand[0].contains("-")) {
+								str=String.format("M%06X",a.get(j).location+1);
+								str=str.concat(String.format("%02X",a.get(j+1).location-a.get(j).location+1));
+								str=str.concat(String.format("+%s", a.get(j).operand[0]));
+								codeList.add(str);
+							}
+							else {
+								String[] tt=a.get(j).operand[0].split("-");
+								str=String.format("M%06X",a.get(j).location);
+								str=str.concat(String.format("%02X",2*(TokenList.get(i).size-a.get(j).location)));
+								str=str.concat(String.format("+%s", tt[0]));
+								codeList.add(str);
+								str=String.format("M%06X",a.get(j).location);
+								str=str.concat(String.format("%02X",2*(TokenList.get(i).size-a.get(j).location)));
+								str=str.concat(String.format("-%s", tt[1]));
+								codeList.add(str);
+								break;
+							}
+							
+						}
+					}
+				}
+			}
+			
+			str="E";
+			if(i==0)str=str.concat("000000");
+			codeList.add(str);
+			codeList.add("\n");
+		}
+	}
+	
+	/**
+	 * 작성된 codeList를 출력형태에 맞게 출력한다.
+	 * @param fileName : 저장되는 파일 이름
+	 */
+	private void printObjectCode(String fileName) {
+		try {
+			FileWriter writer = new FileWriter(fileName);
+			for(int i=0;i<codeList.size();i++) {				
+					writer.write(codeList.get(i)+"\n");
+			}
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+	}
+}
+
+/**
+ * 처음 제공된 TokenTable과 같이 instMap을 처음부터 훑어서 opcode와 format을 찾는 TokenTable.
+ */
+class ReferenceTokenTable extends TokenTable {
+	public ReferenceTokenTable(SymbolTable symTab, LiteralTable literalTab, InstTable instTab) {
+		super(symTab, literalTab, instTab);
+	}
+
+	@Override
+	public int getOpcode(String operator) {
+		int opcode=-1;
+		String str=operator.replace("+", "");
+		Set<String> keys=instTab.instMap.keySet();
+		Iterator<String> it =keys.iterator();
+		while(it.hasNext()) {
+			String key = it.next();
+			Instruction value = instTab.instMap.get(key);
+			if(key.contains(str)) {
+				return value.opcode;
+			}
+		}
+		return opcode;
+	}
+
+	@Override
+	public int getFormat(String operator) {
+		int format=0;
+		Set<String> keys=instTab.instMap.keySet();
+		Iterator<String> it =keys.iterator();
+		while(it.hasNext()) {
+			String key = it.next();
+			Instruction value = instTab.instMap.get(key);
+			if(key.contains(operator)) {
+				return value.format;
+			}
+		}
+		return format;
+	}
+}
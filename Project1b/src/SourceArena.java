@@ -0,0 +1,156 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * 소스 라인들을 heap 밖(direct buffer)에 모아두는 arena. <br>
+ * 라인의 바이트는 CHUNK_SIZE 단위의 direct ByteBuffer에, 라인 위치(chunk, offset, length)는 direct IntBuffer에 차례로 쌓는다.
+ * 라인 수가 아무리 많아도 heap에는 chunk 몇 개의 참조만 남으므로 GC가 훑어야 할 객체 수가 프로그램 크기와 무관하다.<br>
+ * 한번의 어셈블이 끝나면 close()로 모든 chunk의 메모리를 그 자리에서 반환한다. 개별 라인은 해제하지 않는다.<br>
+ * 반환은 direct buffer의 cleaner를 직접 실행하는 방식(Java 8은 DirectBuffer.cleaner(), 9 이상은 Unsafe.invokeCleaner)이다.
+ * 두 방식을 모두 쓸 수 없는 JVM에서는 참조만 끊으며, 이 경우 메모리는 GC가 chunk 객체를 수거할 때 반환된다.
+ */
+public class SourceArena {
+	/** 라인 바이트를 담는 chunk 하나의 크기 */
+	public static final int CHUNK_SIZE=1<<20;
+	/** 위치 chunk 하나가 담는 라인 수 */
+	public static final int INDEX_CHUNK=1<<16;
+
+	/* free()가 사용하는 JVM별 cleaner 호출 방법. 찾지 못하면 null */
+	static final Object UNSAFE;
+	static final Method INVOKE_CLEANER;
+	static final Method CLEANER;
+	static {
+		Object unsafe=null;
+		Method invokeCleaner=null;
+		Method cleaner=null;
+		try {
+			Class<?> unsafeClass=Class.forName("sun.misc.Unsafe");
+			invokeCleaner=unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field=unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe=field.get(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			invokeCleaner=null;
+			try {
+				cleaner=Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+			} catch (ReflectiveOperationException | RuntimeException e2) {
+				cleaner=null;
+			}
+		}
+		UNSAFE=unsafe;
+		INVOKE_CLEANER=invokeCleaner;
+		CLEANER=cleaner;
+	}
+
+	ArrayList<ByteBuffer> chunks;
+	ArrayList<IntBuffer> index;
+	/** index의 IntBuffer들이 보고 있는 direct buffer. 반환할 때 사용한다 */
+	ArrayList<ByteBuffer> indexChunks;
+	/** 지금 채우고 있는 chunk */
+	ByteBuffer current;
+	int lineCount;
+
+	/**
+	 * 클래스 초기화. chunk는 필요할 때 할당한다.
+	 */
+	public SourceArena() {
+		chunks=new ArrayList<ByteBuffer>();
+		index=new ArrayList<IntBuffer>();
+		indexChunks=new ArrayList<ByteBuffer>();
+		current=null;
+		lineCount=0;
+	}
+
+	/**
+	 * 라인을 arena 끝에 추가한다.
+	 * @param line : 추가할 라인
+	 * @return 추가된 라인의 번호
+	 */
+	public int add(String line) {
+		byte[] bytes=line.getBytes(StandardCharsets.UTF_8);
+		if(current==null || current.remaining()<bytes.length) {
+			current=ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, bytes.length));
+			chunks.add(current);
+		}
+		int offset=current.position();
+		current.put(bytes);
+		if(lineCount%INDEX_CHUNK==0) {
+			ByteBuffer indexChunk=ByteBuffer.allocateDirect(INDEX_CHUNK*3*4);
+			indexChunks.add(indexChunk);
+			index.add(indexChunk.asIntBuffer());
+		}
+		IntBuffer position=index.get(lineCount/INDEX_CHUNK);
+		int base=(lineCount%INDEX_CHUNK)*3;
+		position.put(base, chunks.size()-1);
+		position.put(base+1, offset);
+		position.put(base+2, bytes.length);
+		return lineCount++;
+	}
+
+	/**
+	 * 번호에 해당하는 라인을 heap의 String으로 꺼낸다.
+	 * @param line : 라인 번호
+	 * @return 라인 내용
+	 */
+	public String line(int line) {
+		if(line<0 || line>=lineCount) throw new IndexOutOfBoundsException("line "+line+" of "+lineCount);
+		IntBuffer position=index.get(line/INDEX_CHUNK);
+		int base=(line%INDEX_CHUNK)*3;
+		ByteBuffer chunk=chunks.get(position.get(base)).duplicate();
+		byte[] bytes=new byte[position.get(base+2)];
+		chunk.position(position.get(base+1));
+		chunk.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return 저장된 라인 수
+	 */
+	public int size() {
+		return lineCount;
+	}
+
+	/**
+	 * 모든 chunk의 heap 밖 메모리를 한꺼번에 반환한다. 이후에는 사용할 수 없다.
+	 * 반환된 chunk를 가리키는 buffer가 남지 않도록, line()이 만든 duplicate는 호출 중에만 쓰이고 밖으로 나가지 않는다.
+	 * @return 메모리를 바로 반환했으면 true. cleaner를 쓸 수 없어 GC에 맡겼으면 false
+	 */
+	public boolean close() {
+		boolean freed=true;
+		for(int i=0;i<chunks.size();i++) freed&=free(chunks.get(i));
+		for(int i=0;i<indexChunks.size();i++) freed&=free(indexChunks.get(i));
+		chunks.clear();
+		index.clear();
+		indexChunks.clear();
+		current=null;
+		lineCount=0;
+		return freed;
+	}
+
+	/**
+	 * direct buffer의 cleaner를 실행하여 메모리를 바로 반환한다.
+	 * @param buffer : allocateDirect로 만든 buffer. duplicate나 view는 안된다
+	 * @return 반환했으면 true
+	 */
+	static boolean free(ByteBuffer buffer) {
+		try {
+			if(INVOKE_CLEANER!=null) {		// Java 9 이상
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				return true;
+			}
+			if(CLEANER!=null) {		// Java 8
+				Object cleaner=CLEANER.invoke(buffer);
+				if(cleaner!=null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return true;
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// 반환하지 못한 메모리는 GC에 맡긴다
+		}
+		return false;
+	}
+
+}
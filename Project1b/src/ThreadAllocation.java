@@ -0,0 +1,37 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 어셈블이 만든 작업 thread(pipeline 단계, 병렬 토큰 분리, 출력 thread)들이 할당한 바이트 수를 모아두는 곳. <br>
+ * 끝난 thread의 할당량은 나중에 알 수 없으므로, 각 작업이 끝날 때 자기 thread에서 할당한 양을 record()로 더해 둔다.
+ * AssemblerHarness가 라인당 할당량을 잴 때 harness thread의 할당량에 더해서 사용한다.
+ */
+public class ThreadAllocation {
+	/** 지금까지 기록된 작업 thread들의 할당량 합 */
+	static final AtomicLong total=new AtomicLong();
+
+	/**
+	 * @return 현재 thread가 지금까지 할당한 바이트 수. 측정할 수 없으면 0
+	 */
+	public static long current() {
+		java.lang.management.ThreadMXBean bean=ManagementFactory.getThreadMXBean();
+		if(bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+
+	/**
+	 * 작업을 시작할 때 current()로 잰 값 이후로 현재 thread가 할당한 양을 합에 더한다. 작업이 끝날 때 같은 thread에서 호출한다.
+	 * @param start : 작업을 시작할 때의 current() 값
+	 */
+	public static void record(long start) {
+		total.addAndGet(current()-start);
+	}
+
+	/**
+	 * @return 지금까지 기록된 작업 thread들의 할당량 합
+	 */
+	public static long total() {
+		return total.get();
+	}
+}
@@ -23,6 +23,10 @@ public class TokenTable {
 	LiteralTable literalTab;
 	InstTable instTab;
 	int size;
+	/** program block(USE)이 있을 때 token 번호를 block 순서(주소 순서)로 나열한 것. block이 하나면 null */
+	int[] blockOrder;
+	/** token의 문자열을 공유할 pool. null이면 공유하지 않는다 */
+	InternPool internPool;
 	
 	/** 각 line을 의미별로 분할하고 분석하는 공간. */
 	ArrayList<Token> tokenList;
@@ -44,10 +48,17 @@ public class TokenTable {
 	 * @param line : 분리되지 않은 일반 문자열
 	 */
 	public void putToken(String line) {
-		tokenList.add(new Token(line));
+		tokenList.add(new Token(line, internPool));
 	}
 	public void putToken(int index,String line) {
-		tokenList.add(index,new Token(line));
+		tokenList.add(index,new Token(line, internPool));
+	}
+	/**
+	 * 이미 분리된 Token을 tokenList에 추가한다. 토큰 분리를 미리 병렬로 수행한 경우에 사용한다.
+	 * @param token : 분리가 끝난 Token
+	 */
+	public void putToken(Token token) {
+		tokenList.add(token);
 	}
 	/**
 	 * tokenList에서 index에 해당하는 Token을 리턴한다.
@@ -57,31 +68,32 @@ public class TokenTable {
 	public Token getToken(int index) {
 		return tokenList.get(index);
 	}
+	/**
+	 * token들을 주소 순서대로 돌려준다. program block이 없으면 tokenList 그대로이다.
+	 * @return block 순서대로 나열된 token 목록
+	 */
+	public ArrayList<Token> tokensInAddressOrder() {
+		if(blockOrder==null) return tokenList;
+		ArrayList<Token> ordered=new ArrayList<Token>(blockOrder.length);
+		for(int i=0;i<blockOrder.length;i++)
+			ordered.add(tokenList.get(blockOrder[i]));
+		return ordered;
+	}
 	
 	public int getOpcode(String operator) {
 		int opcode=-1;
 		String str=operator.replace("+", "");
-		Set<String> keys=instTab.instMap.keySet();
-		Iterator<String> it =keys.iterator();
-		while(it.hasNext()) {
-			String key = it.next();
-			Instruction value = instTab.instMap.get(key);
-			if(key.contains(str)) {
-				return value.opcode;
-			}
+		Instruction value = instTab.search(str);
+		if(value!=null) {
+			return value.opcode;
 		}
 		return opcode;
 	}
 	public int getFormat(String operator) {
 		int format=0;
-		Set<String> keys=instTab.instMap.keySet();
-		Iterator<String> it =keys.iterator();
-		while(it.hasNext()) {
-			String key = it.next();
-			Instruction value = instTab.instMap.get(key);
-			if(key.contains(operator)) {
-				return value.format;
-			}
+		Instruction value = instTab.search(operator);
+		if(value!=null) {
+			return value.format;
 		}
 		return format;
 	}
@@ -111,8 +123,9 @@ public class TokenTable {
 				result=result.concat(String.format("%03X", temp));
 			}
 			else {
-				if(tokenList.get(index).numberOfOperand==0) {	//오퍼랜드갯수가 0일떄
-					result=result.concat("0000");
+				if(tokenList.get(index).numberOfOperand==0) {	//오퍼랜드갯수가 0일떄. 주소 부분(3형식 3자리, 4형식 5자리)을 0으로 채운다
+					if(tokenList.get(index).operator.contains("+")) result=result.concat("00000");
+					else result=result.concat("000");
 				}
 				else if(tokenList.get(index).numberOfOperand==1) {	//오퍼랜드갯수가 1일떄
 					if(getFormat(tokenList.get(index).operator)==2) {	//오퍼레이터가2형식일떄
@@ -207,6 +220,8 @@ public class TokenTable {
 class Token{
 	//의미 분석 단계에서 사용되는 변수들
 	int location;
+	/** 이 token이 속한 program block 번호. USE가 없으면 0 */
+	int block;
 	int numberOfOperand;
 	String label;
 	String operator;
@@ -223,12 +238,21 @@ class Token{
 	 * @param line 문장단위로 저장된 프로그램 코드
 	 */
 	public Token(String line) {
+		this(line, null);
+	}
+	
+	/**
+	 * 클래스를 초기화 하면서 바로 line의 의미 분석을 수행한다. label, operator, operand는 pool의 문자열을 공유한다.
+	 * @param line 문장단위로 저장된 프로그램 코드
+	 * @param pool 문자열을 공유할 pool. null이면 공유하지 않는다
+	 */
+	public Token(String line, InternPool pool) {
 		location=0;
 		nixbpe=0;
 		byteSize=0;
 		numberOfOperand=0;
 		objectCode="";
-		parsing(line);
+		parsing(line, pool);
 	}
 	
 	/**
@@ -236,14 +260,23 @@ class Token{
 	 * @param line 문장단위로 저장된 프로그램 코드.
 	 */
 	public void parsing(String line) {
+		parsing(line, null);
+	}
+	
+	/**
+	 * parsing(line)과 같되, label, operator, operand를 pool의 문자열로 바꾸어 저장한다.
+	 * @param line 문장단위로 저장된 프로그램 코드.
+	 * @param pool 문자열을 공유할 pool. null이면 공유하지 않는다
+	 */
+	public void parsing(String line, InternPool pool) {
 		String[] tmp = new String[4];
 		String[] tmp1 =line.split("\t");
 		for(int i=0;i<4;i++)
 			tmp[i]="";
 		for(int i=0;i<tmp1.length;i++) 
 			tmp[i]=tmp1[i];
-		label=tmp[0];				//라벨 저장
-		operator=tmp[1];			//operator 저장
+		label=intern(pool, tmp[0]);		//라벨 저장. 같은 batch의 어셈블들과 문자열을 공유한다
+		operator=intern(pool, tmp[1]);		//operator 저장
 		comment=tmp[3];				//comment 저장
 		
 		
@@ -254,9 +287,9 @@ class Token{
 			tmp3[i]="";
 		for(int i=0;i<tmp2.length;i++)
 			tmp3[i]=tmp2[i];
-		operand[0]=tmp3[0];
-		operand[1]=tmp3[1];
-		operand[2]=tmp3[2];
+		operand[0]=intern(pool, tmp3[0]);
+		operand[1]=intern(pool, tmp3[1]);
+		operand[2]=intern(pool, tmp3[2]);
 		for(int i=0;i<3;i++) 
 			if(!operand[i].matches("")) numberOfOperand++; 	//오퍼랜드 갯수 저장 
 		if(tmp[2].contains("#")) {		//nixbpe 중 ni 결정
@@ -275,6 +308,11 @@ class Token{
 			setFlag(TokenTable.pFlag,1);
 	}
 	
+	/** pool이 있으면 pool의 문자열로 바꾼다. */
+	static String intern(InternPool pool, String str) {
+		return pool==null ? str : pool.intern(str);
+	}
+	
 	/** 
 	 * n,i,x,b,p,e flag를 설정한다. 
 	 * 